@@ -0,0 +1,94 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Measures each stage of the pipeline separately on the programs in
+// resources/corpus. Every stage after the scanner runs on the output the
+// previous stages produced once in setup().
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+	@Param({ "fib", "loops", "strings", "oop", "closures" })
+	String program;
+
+	private String source;
+	private List<Token> tokens;
+	private List<Stmt> statements;
+	private List<Stmt> optimized;
+	// The globals the statements were resolved against. Each run starts from a
+	// copy of them.
+	private Environment globals;
+
+	@Setup
+	public void setup() throws IOException {
+		try (InputStream input = PipelineBenchmark.class.getResourceAsStream("/corpus/" + program + ".lox")) {
+			source = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+		}
+
+		tokens = new Scanner(source).scanTokens();
+		statements = new Parser(tokens).parse();
+		Interpreter resolved = new Interpreter(RunningMode.INPUT_FILE);
+		new Resolver(resolved).resolve(statements);
+		globals = resolved.globals;
+
+		if (LoxSession.current().hadError())
+			throw new IllegalStateException("Corpus program '" + program + "' has errors.");
+
+		optimized = new Optimizer(false).optimize(statements);
+	}
+
+	@Benchmark
+	public List<Token> scan() {
+		return new Scanner(source).scanTokens();
+	}
+
+	@Benchmark
+	public List<Stmt> parse() {
+		return new Parser(tokens).parse();
+	}
+
+	// Resolving the same statements again assigns the same slots, so the tree
+	// stays valid for optimize().
+	@Benchmark
+	public Resolver resolve() {
+		Resolver resolver = new Resolver(new Interpreter(RunningMode.INPUT_FILE));
+		resolver.resolve(statements);
+		return resolver;
+	}
+
+	// Builds a new tree and leaves the resolved one as it was.
+	@Benchmark
+	public List<Stmt> optimize() {
+		return new Optimizer(false).optimize(statements);
+	}
+
+	// Runs the optimized tree, as a session does.
+	@Benchmark
+	public Interpreter interpret() {
+		Interpreter interpreter = new Interpreter(RunningMode.INPUT_FILE, Lox.out, globals.copyOnWrite());
+		interpreter.interpret(optimized);
+		if (LoxSession.current().hadRuntimeError())
+			throw new IllegalStateException("Corpus program '" + program + "' failed.");
+		return interpreter;
+	}
+}
@@ -77,7 +77,7 @@ class AstExprPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
 		var stmts = Arrays.asList(stmtprint, stmtexprLoop, stmtIf);
 		var stmtblock = new Stmt.Block(stmts);
 
-		var stmtWhile = new Stmt.While(cond, stmtblock);
+		var stmtWhile = new Stmt.While(cond, stmtblock, null);
 
 		System.out.println(new AstExprPrinter().print(stmtWhile));
 	}
@@ -229,6 +229,8 @@ class AstExprPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
 
 	@Override
 	public String visitWhileStmt(While stmt) {
+		if (stmt.increment != null)
+			return parenthesize2("Stmt.while", stmt.condition, stmt.body, stmt.increment);
 		return parenthesize2("Stmt.while", stmt.condition, stmt.body);
 	}
 
@@ -0,0 +1,585 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// Second tier for hot functions. Turns a function body into a tree of small
+// Java objects once, each with the operation and operands of its node baked
+// in, so that running it no longer dispatches through the visitors and
+// HotSpot can profile and inline each node on its own. The compiled code
+// keeps the Interpreter's environments and values, so interpreted and compiled
+// functions call each other freely. Class declarations and super expressions
+// are rare in hot code and still run on the Interpreter.
+class ClosureCompiler implements Expr.Visitor<ClosureCompiler.Node>, Stmt.Visitor<ClosureCompiler.Body> {
+	// Calls of a function declaration before its body gets compiled.
+	static final int COMPILE_THRESHOLD = 1000;
+
+	// Abstract classes rather than interfaces: calls through them are
+	// megamorphic by design, and HotSpot dispatches those faster through a vtable
+	// than through an itable.
+	abstract static class Node {
+		abstract Object evaluate(Interpreter interpreter, Environment environment);
+	}
+
+	abstract static class Body {
+		abstract Completion execute(Interpreter interpreter, Environment environment);
+	}
+
+	private static final Node NIL = new Node() {
+		@Override
+		Object evaluate(Interpreter interpreter, Environment environment) {
+			return null;
+		}
+	};
+
+	Body compile(Expr.Function function) {
+		return sequence(function.body);
+	}
+
+	private Node compile(Expr expr) {
+		return expr.accept(this);
+	}
+
+	private Body compile(Stmt stmt) {
+		return stmt.accept(this);
+	}
+
+	private Body sequence(List<Stmt> statements) {
+		Body[] bodies = new Body[statements.size()];
+		for (int i = 0; i < bodies.length; i++) {
+			bodies[i] = compile(statements.get(i));
+		}
+
+		if (bodies.length == 1)
+			return bodies[0];
+
+		return new Body() {
+			@Override
+			Completion execute(Interpreter interpreter, Environment environment) {
+				for (Body body : bodies) {
+					Completion completion = body.execute(interpreter, environment);
+					if (completion != Completion.NORMAL)
+						return completion;
+				}
+				return Completion.NORMAL;
+			}
+		};
+	}
+
+	private Node[] compileArguments(Expr.Call expr) {
+		Node[] arguments = new Node[expr.arguments.size()];
+		for (int i = 0; i < arguments.length; i++) {
+			arguments[i] = compile(expr.arguments.get(i));
+		}
+		return arguments;
+	}
+
+	@Override
+	public Body visitBlockStmt(Stmt.Block stmt) {
+		Body body = sequence(stmt.statements);
+		int slots = stmt.slots;
+		if (slots == 0)
+			return body;
+		return new Body() {
+			@Override
+			Completion execute(Interpreter interpreter, Environment environment) {
+				return body.execute(interpreter, new Environment(environment, slots));
+			}
+		};
+	}
+
+	@Override
+	public Body visitClassStmt(Stmt.Class stmt) {
+		return new Body() {
+			@Override
+			Completion execute(Interpreter interpreter, Environment environment) {
+				return interpreter.execute(stmt, environment);
+			}
+		};
+	}
+
+	@Override
+	public Body visitBreakStmt(Stmt.Break stmt) {
+		return new Body() {
+			@Override
+			Completion execute(Interpreter interpreter, Environment environment) {
+				return Completion.BREAK;
+			}
+		};
+	}
+
+	@Override
+	public Body visitExpressionStmt(Stmt.Expression stmt) {
+		Node expression = compile(stmt.expression);
+		return new Body() {
+			@Override
+			Completion execute(Interpreter interpreter, Environment environment) {
+				expression.evaluate(interpreter, environment);
+				return Completion.NORMAL;
+			}
+		};
+	}
+
+	@Override
+	public Body visitFunctionStmt(Stmt.Function stmt) {
+		int slot = stmt.slot;
+		return new Body() {
+			@Override
+			Completion execute(Interpreter interpreter, Environment environment) {
+				environment.slots[slot] = new LoxFunction(stmt, environment, false);
+				return Completion.NORMAL;
+			}
+		};
+	}
+
+	@Override
+	public Body visitIfStmt(Stmt.If stmt) {
+		Node condition = compile(stmt.condition);
+		Body thenBranch = compile(stmt.thenBranch);
+		if (stmt.elseBranch == null) {
+			return new Body() {
+				@Override
+				Completion execute(Interpreter interpreter, Environment environment) {
+					if (Interpreter.isTruthy(condition.evaluate(interpreter, environment)))
+						return thenBranch.execute(interpreter, environment);
+					return Completion.NORMAL;
+				}
+			};
+		}
+
+		Body elseBranch = compile(stmt.elseBranch);
+		return new Body() {
+			@Override
+			Completion execute(Interpreter interpreter, Environment environment) {
+				if (Interpreter.isTruthy(condition.evaluate(interpreter, environment)))
+					return thenBranch.execute(interpreter, environment);
+				return elseBranch.execute(interpreter, environment);
+			}
+		};
+	}
+
+	@Override
+	public Body visitPrintStmt(Stmt.Print stmt) {
+		Node expression = compile(stmt.expression);
+		return new Body() {
+			@Override
+			Completion execute(Interpreter interpreter, Environment environment) {
+				interpreter.out.println(Interpreter.stringify(expression.evaluate(interpreter, environment)));
+				return Completion.NORMAL;
+			}
+		};
+	}
+
+	@Override
+	public Body visitReturnStmt(Stmt.Return stmt) {
+		if (stmt.tailCall) {
+			Node call = compileCall((Expr.Call) stmt.value, true);
+			return new Body() {
+				@Override
+				Completion execute(Interpreter interpreter, Environment environment) {
+					Object value = call.evaluate(interpreter, environment);
+					if (value == Interpreter.TAIL_CALL)
+						return Completion.TAIL_CALL;
+					interpreter.returnValue = value;
+					return Completion.RETURN;
+				}
+			};
+		}
+
+		Node value = stmt.value == null ? NIL : compile(stmt.value);
+		return new Body() {
+			@Override
+			Completion execute(Interpreter interpreter, Environment environment) {
+				interpreter.returnValue = value.evaluate(interpreter, environment);
+				return Completion.RETURN;
+			}
+		};
+	}
+
+	@Override
+	public Body visitVarStmt(Stmt.Var stmt) {
+		Node initializer = stmt.initializer == null ? NIL : compile(stmt.initializer);
+		int slot = stmt.slot;
+		return new Body() {
+			@Override
+			Completion execute(Interpreter interpreter, Environment environment) {
+				environment.slots[slot] = initializer.evaluate(interpreter, environment);
+				return Completion.NORMAL;
+			}
+		};
+	}
+
+	@Override
+	public Body visitWhileStmt(Stmt.While stmt) {
+		Node condition = compile(stmt.condition);
+		Body body = compile(stmt.body);
+		Node increment = stmt.increment == null ? NIL : compile(stmt.increment);
+		return new Body() {
+			@Override
+			Completion execute(Interpreter interpreter, Environment environment) {
+				while (Interpreter.isTruthy(condition.evaluate(interpreter, environment))) {
+					Completion completion = body.execute(interpreter, environment);
+					if (completion == Completion.BREAK)
+						break;
+					if (completion != Completion.NORMAL)
+						return completion;
+					increment.evaluate(interpreter, environment);
+				}
+				return Completion.NORMAL;
+			}
+		};
+	}
+
+	@Override
+	public Node visitAssignExpr(Expr.Assign expr) {
+		Node value = compile(expr.value);
+		int depth = expr.depth;
+		int slot = expr.slot;
+		if (depth < 0) {
+			Token name = expr.name;
+			return new Node() {
+				@Override
+				Object evaluate(Interpreter interpreter, Environment environment) {
+					Object result = value.evaluate(interpreter, environment);
+					interpreter.globals.assignGlobal(slot, name, result);
+					return result;
+				}
+			};
+		}
+
+		return new Node() {
+			@Override
+			Object evaluate(Interpreter interpreter, Environment environment) {
+				Object result = value.evaluate(interpreter, environment);
+				environment.assignAt(depth, slot, result);
+				return result;
+			}
+		};
+	}
+
+	@Override
+	public Node visitBinaryExpr(Expr.Binary expr) {
+		Node left = compile(expr.left);
+		Node right = compile(expr.right);
+		Token operator = expr.operator;
+
+		switch (operator.type) {
+		case BANG_EQUAL:
+			return new Node() {
+				@Override
+				Object evaluate(Interpreter interpreter, Environment environment) {
+					return !Interpreter.isEqual(left.evaluate(interpreter, environment),
+							right.evaluate(interpreter, environment));
+				}
+			};
+		case EQUAL_EQUAL:
+			return new Node() {
+				@Override
+				Object evaluate(Interpreter interpreter, Environment environment) {
+					return Interpreter.isEqual(left.evaluate(interpreter, environment),
+							right.evaluate(interpreter, environment));
+				}
+			};
+		case PLUS:
+			return new Node() {
+				@Override
+				Object evaluate(Interpreter interpreter, Environment environment) {
+					Object a = left.evaluate(interpreter, environment);
+					Object b = right.evaluate(interpreter, environment);
+					if (a instanceof Double leftNumber && b instanceof Double rightNumber)
+						return Numbers.box(leftNumber + rightNumber);
+					if (a instanceof CharSequence leftString && b instanceof CharSequence rightString)
+						return Rope.concat(leftString, rightString);
+					if (a instanceof CharSequence leftString)
+						return Rope.concat(leftString, String.valueOf(b));
+					if (b instanceof CharSequence rightString)
+						return Rope.concat(Interpreter.stringify(a), rightString);
+					throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+				}
+			};
+		default:
+			break;
+		}
+
+		return new Node() {
+			@Override
+			Object evaluate(Interpreter interpreter, Environment environment) {
+				Object a = left.evaluate(interpreter, environment);
+				Object b = right.evaluate(interpreter, environment);
+				if (!(a instanceof Double leftNumber) || !(b instanceof Double rightNumber)) {
+					throw new RuntimeError(operator, "Operands must be numbers.");
+				}
+
+				switch (operator.type) {
+				case GREATER:
+					return leftNumber > rightNumber;
+				case GREATER_EQUAL:
+					return leftNumber >= rightNumber;
+				case LESS:
+					return leftNumber < rightNumber;
+				case LESS_EQUAL:
+					return leftNumber <= rightNumber;
+				case MINUS:
+					return Numbers.box(leftNumber - rightNumber);
+				case STAR:
+					return Numbers.box(leftNumber * rightNumber);
+				case SLASH:
+					if (rightNumber == 0) {
+						throw new RuntimeError(operator, "invalid division by 0");
+					}
+					return Numbers.box(leftNumber / rightNumber);
+				default:
+					// Unreachable.
+					return null;
+				}
+			}
+		};
+	}
+
+	@Override
+	public Node visitCallExpr(Expr.Call expr) {
+		return compileCall(expr, false);
+	}
+
+	// Mirrors Interpreter.visitCallExpr and Interpreter.tailCall.
+	private Node compileCall(Expr.Call expr, boolean tail) {
+		Node[] arguments = compileArguments(expr);
+
+		if (expr.callee instanceof Expr.Get get)
+			return invoke(expr, get, arguments, tail);
+
+		Node callee = compile(expr.callee);
+		return new Node() {
+			@Override
+			Object evaluate(Interpreter interpreter, Environment environment) {
+				return call(interpreter, environment, expr, callee.evaluate(interpreter, environment), arguments,
+						tail);
+			}
+		};
+	}
+
+	// Mirrors Interpreter.invoke.
+	private Node invoke(Expr.Call expr, Expr.Get get, Node[] arguments, boolean tail) {
+		Node object = compile(get.object);
+		Token name = get.name;
+		return new Node() {
+			@Override
+			Object evaluate(Interpreter interpreter, Environment environment) {
+				if (!(object.evaluate(interpreter, environment) instanceof LoxInstance instance)) {
+					throw new RuntimeError(name, "Only instances have properties.");
+				}
+
+				InlineCache cache = interpreter.cache(get);
+				LoxInstance fields = interpreter.fieldsOf(instance);
+				int slot = fields.fieldSlot(name.lexeme, cache);
+				if (slot >= 0)
+					return call(interpreter, environment, expr, interpreter.callGetter(fields.getField(slot)),
+							arguments, tail);
+
+				LoxFunction method = instance.findMethod(name.lexeme, cache);
+				if (method == null) {
+					throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+				}
+
+				if (method.isGetter())
+					return call(interpreter, environment, expr, method.callMethod(interpreter, instance, null),
+							arguments, tail);
+
+				return callFunction(interpreter, environment, expr, method, method.methodFrame(instance), arguments,
+						tail);
+			}
+		};
+	}
+
+	// Mirrors Interpreter.callValue.
+	private static Object call(Interpreter interpreter, Environment environment, Expr.Call expr, Object callee,
+			Node[] arguments, boolean tail) {
+		if (callee instanceof LoxFunction function)
+			return callFunction(interpreter, environment, expr, function, function.frame(), arguments, tail);
+
+		Object[] values = new Object[arguments.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = arguments[i].evaluate(interpreter, environment);
+		}
+
+		if (!(callee instanceof LoxCallable)) {
+			throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+		}
+
+		LoxCallable function = (LoxCallable) callee;
+		Interpreter.checkArity(expr, function);
+		return Interpreter.call(interpreter, expr, function, values);
+	}
+
+	private static Object callFunction(Interpreter interpreter, Environment environment, Expr.Call expr,
+			LoxFunction function, Environment frame, Node[] arguments, boolean tail) {
+		for (int i = 0; i < arguments.length; i++) {
+			Object argument = arguments[i].evaluate(interpreter, environment);
+			if (i < frame.slots.length)
+				frame.slots[i] = argument;
+		}
+
+		Interpreter.checkArity(expr, function);
+		if (tail)
+			return interpreter.deferCall(function, frame);
+		try {
+			return function.run(interpreter, frame);
+		} catch (StackOverflowError error) {
+			throw new RuntimeError(expr.paren, "Stack overflow.");
+		}
+	}
+
+	@Override
+	public Node visitGetExpr(Expr.Get expr) {
+		Node object = compile(expr.object);
+		Token name = expr.name;
+		return new Node() {
+			@Override
+			Object evaluate(Interpreter interpreter, Environment environment) {
+				if (object.evaluate(interpreter, environment) instanceof LoxInstance instance)
+					return interpreter.callGetter(interpreter.getProperty(instance, name, interpreter.cache(expr)));
+
+				throw new RuntimeError(name, "Only instances have properties.");
+			}
+		};
+	}
+
+	@Override
+	public Node visitGroupingExpr(Expr.Grouping expr) {
+		return compile(expr.expression);
+	}
+
+	@Override
+	public Node visitLiteralExpr(Expr.Literal expr) {
+		Object value = expr.value;
+		return new Node() {
+			@Override
+			Object evaluate(Interpreter interpreter, Environment environment) {
+				return value;
+			}
+		};
+	}
+
+	@Override
+	public Node visitLogicalExpr(Expr.Logical expr) {
+		Node left = compile(expr.left);
+		Node right = compile(expr.right);
+		if (expr.operator.type == TokenType.OR) {
+			return new Node() {
+				@Override
+				Object evaluate(Interpreter interpreter, Environment environment) {
+					Object value = left.evaluate(interpreter, environment);
+					if (Interpreter.isTruthy(value))
+						return value;
+					return right.evaluate(interpreter, environment);
+				}
+			};
+		}
+
+		return new Node() {
+			@Override
+			Object evaluate(Interpreter interpreter, Environment environment) {
+				Object value = left.evaluate(interpreter, environment);
+				if (!Interpreter.isTruthy(value))
+					return value;
+				return right.evaluate(interpreter, environment);
+			}
+		};
+	}
+
+	@Override
+	public Node visitSetExpr(Expr.Set expr) {
+		Node object = compile(expr.object);
+		Node value = compile(expr.value);
+		Token name = expr.name;
+		return new Node() {
+			@Override
+			Object evaluate(Interpreter interpreter, Environment environment) {
+				if (!(object.evaluate(interpreter, environment) instanceof LoxInstance instance)) {
+					throw new RuntimeError(name, "Only instances have fields.");
+				}
+
+				Object result = value.evaluate(interpreter, environment);
+				interpreter.setField(instance, name, result);
+				return result;
+			}
+		};
+	}
+
+	@Override
+	public Node visitSuperExpr(Expr.Super expr) {
+		return new Node() {
+			@Override
+			Object evaluate(Interpreter interpreter, Environment environment) {
+				return interpreter.evaluate(expr, environment);
+			}
+		};
+	}
+
+	@Override
+	public Node visitThisExpr(Expr.This expr) {
+		return variable(expr.keyword, expr.depth, expr.slot);
+	}
+
+	@Override
+	public Node visitUnaryExpr(Expr.Unary expr) {
+		Node right = compile(expr.right);
+		Token operator = expr.operator;
+		if (operator.type == TokenType.BANG) {
+			return new Node() {
+				@Override
+				Object evaluate(Interpreter interpreter, Environment environment) {
+					return !Interpreter.isTruthy(right.evaluate(interpreter, environment));
+				}
+			};
+		}
+
+		return new Node() {
+			@Override
+			Object evaluate(Interpreter interpreter, Environment environment) {
+				if (right.evaluate(interpreter, environment) instanceof Double number)
+					return Numbers.box(-number);
+				throw new RuntimeError(operator, "Operand must be a number.");
+			}
+		};
+	}
+
+	@Override
+	public Node visitVariableExpr(Expr.Variable expr) {
+		return variable(expr.name, expr.depth, expr.slot);
+	}
+
+	private Node variable(Token name, int depth, int slot) {
+		if (depth < 0) {
+			return new Node() {
+				@Override
+				Object evaluate(Interpreter interpreter, Environment environment) {
+					return interpreter.globals.getGlobal(slot, name);
+				}
+			};
+		}
+		if (depth == 0) {
+			return new Node() {
+				@Override
+				Object evaluate(Interpreter interpreter, Environment environment) {
+					return environment.slots[slot];
+				}
+			};
+		}
+		return new Node() {
+			@Override
+			Object evaluate(Interpreter interpreter, Environment environment) {
+				return environment.getAt(depth, slot);
+			}
+		};
+	}
+
+	@Override
+	public Node visitFunctionExpr(Expr.Function expr) {
+		return new Node() {
+			@Override
+			Object evaluate(Interpreter interpreter, Environment environment) {
+				return new LoxFunction(null, expr, environment, false);
+			}
+		};
+	}
+}
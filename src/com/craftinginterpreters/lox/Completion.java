@@ -0,0 +1,9 @@
+package com.craftinginterpreters.lox;
+
+// How a statement finished executing. Break and return unwind through the
+// enclosing statements by returning these instead of throwing, the value of a
+// return is left in Interpreter.returnValue. TAIL_CALL is a return whose call
+// is left in the Interpreter for LoxFunction.run() to make.
+enum Completion {
+	NORMAL, BREAK, RETURN, TAIL_CALL
+}
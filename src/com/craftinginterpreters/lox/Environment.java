@@ -1,64 +1,116 @@
 package com.craftinginterpreters.lox;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 class Environment {
 	final public int id;
 	final Environment enclosing;
-	private final Map<String, Object> values = new HashMap<>();
+
+	// Indexes of the names of these globals. A tree resolved against them only
+	// runs in them or in copies of them, which start out with the same table.
+	private final Names names;
+	// Stored for a defined global holding nil, which reads as un-assigned.
+	private static final Object UNASSIGNED = new Object();
+
+	// Only the global environment is keyed by name, through the index the
+	// Resolver interned for it. A null value means the name isn't defined.
+	// Every local scope stores its variables in the slots the Resolver
+	// assigned to them.
+	private Object[] values;
+	// Whether values still belongs to a ProgramImage, and has to be copied
+	// before the first write.
+	private boolean shared = false;
+	final Object[] slots;
 
 	Environment() {
+		this(new Names());
+	}
+
+	private Environment(Names names) {
 		enclosing = null;
 		this.id = 1;
+		this.names = names;
+		this.values = new Object[16];
+		this.slots = null;
 	}
 
-	Environment(Environment enclosing) {
+	Environment(Environment enclosing, int size) {
 		this.enclosing = enclosing;
 		this.id = this.enclosing.id + 1;
+		this.names = null;
+		this.values = null;
+		this.slots = new Object[size];
 	}
 
-	Object get(Token name) {
-		if (values.containsKey(name.lexeme)) {
-			var assignment = values.get(name.lexeme);
-			if (assignment == null) {
-				throw new RuntimeError(name, "Accessing un-assigned variable '" + name.lexeme + "'.");
-			}
-			return assignment;
-		}
+	// New globals that start out with the values and names of these, and copy
+	// the values on their first write. Names interned in the copy afterwards
+	// don't show up here.
+	Environment copyOnWrite() {
+		Environment copy = new Environment(names.copy());
+		copy.values = values;
+		copy.shared = true;
+		return copy;
+	}
 
-		if (enclosing != null)
-			return enclosing.get(name);
+	int globalIndex(String name) {
+		return names.indexOf(name);
+	}
 
-		throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+	// Numbers a property access of a tree resolved against these globals. Its
+	// InlineCache is kept under that number by each interpreter running the tree.
+	int newCacheSite() {
+		return names.newSite();
 	}
 
-	Object get(String tokenName) {
-		if (values.containsKey(tokenName)) {
-			var assignment = values.get(tokenName);
-			if (assignment == null) {
-				throw new RuntimeError(null, "Accessing un-assigned variable '" + tokenName + "'.");
-			}
-			return assignment;
+	Object get(Token name) {
+		return getGlobal(-1, name);
+	}
+
+	// A negative index is for a node the Resolver never saw, so the name is
+	// looked up instead.
+	Object getGlobal(int index, Token name) {
+		if (index < 0)
+			index = globalIndex(name.lexeme);
+		if (index < values.length) {
+			Object value = values[index];
+			if (value != null && value != UNASSIGNED)
+				return value;
+			if (value == UNASSIGNED)
+				throw new RuntimeError(name, "Accessing un-assigned variable '" + name.lexeme + "'.");
 		}
 
-		if (enclosing != null)
-			return enclosing.get(tokenName);
+		throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+	}
 
-		throw new RuntimeError(null, "Undefined variable '" + tokenName + "'.");
+	// The value of a global, or null if it isn't defined or holds nil.
+	Object lookupGlobal(int index) {
+		Object[] values = this.values;
+		if (index >= values.length || values[index] == UNASSIGNED)
+			return null;
+		return values[index];
 	}
 
-	void define(String name, Object value) {
-		values.put(name, value);
+	// Synchronized because tasks share the globals, and a define can replace
+	// the values array.
+	synchronized void define(String name, Object value) {
+		int index = globalIndex(name);
+		if (index >= values.length || shared) {
+			values = Arrays.copyOf(values, Math.max(values.length * 2, index + 1));
+			shared = false;
+		}
+		values[index] = value == null ? UNASSIGNED : value;
 	}
 
-	Object getAt(int distance, String name) {
-		return ancestor(distance).values.get(name);
+	Object getAt(int distance, int slot) {
+		return ancestor(distance).slots[slot];
 	}
 
-	void assignAt(int distance, Token name, Object value) {
-		ancestor(distance).values.put(name.lexeme, value);
+	void assignAt(int distance, int slot, Object value) {
+		ancestor(distance).slots[slot] = value;
 	}
 
 	Environment ancestor(int distance) {
@@ -71,20 +123,75 @@ class Environment {
 	}
 
 	String getKeys() {
-		return values.keySet().toString();
+		if (values == null)
+			return Arrays.toString(slots);
+
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null)
+				keys.add(names.nameAt(i));
+		}
+		return keys.toString();
 	}
 
 	void assign(Token name, Object value) {
-		if (values.containsKey(name.lexeme)) {
-			values.put(name.lexeme, value);
-			return;
-		}
+		assignGlobal(-1, name, value);
+	}
 
-		if (enclosing != null) {
-			enclosing.assign(name, value);
+	// Synchronized like define(), which could otherwise replace the values
+	// array between the check and the write, and lose the assignment.
+	synchronized void assignGlobal(int index, Token name, Object value) {
+		if (index < 0)
+			index = globalIndex(name.lexeme);
+		if (index < values.length && values[index] != null) {
+			if (shared) {
+				values = values.clone();
+				shared = false;
+			}
+			values[index] = value == null ? UNASSIGNED : value;
 			return;
 		}
 
 		throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
 	}
-}
\ No newline at end of file
+
+	// Synchronized because the session's Resolver can intern a name while its
+	// tasks look names up.
+	private static final class Names {
+		private final Map<String, Integer> indexes;
+		private final List<String> names;
+		private int sites;
+
+		Names() {
+			this(new HashMap<>(), new ArrayList<>(), 0);
+		}
+
+		private Names(Map<String, Integer> indexes, List<String> names, int sites) {
+			this.indexes = indexes;
+			this.names = names;
+			this.sites = sites;
+		}
+
+		synchronized int indexOf(String name) {
+			Integer index = indexes.get(name);
+			if (index == null) {
+				index = names.size();
+				indexes.put(name, index);
+				names.add(name);
+			}
+			return index;
+		}
+
+		synchronized String nameAt(int index) {
+			return names.get(index);
+		}
+
+		synchronized int newSite() {
+			return sites++;
+		}
+
+		synchronized Names copy() {
+			return new Names(new HashMap<>(indexes), new ArrayList<>(names), sites);
+		}
+	}
+}
@@ -31,6 +31,8 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+    int depth = -1;
+    int slot = -1;
   }
   static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
@@ -47,6 +49,8 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+    Specialization specialization = Specialization.UNINITIALIZED;
+    boolean numeric = false;
   }
   static class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments) {
@@ -77,6 +81,7 @@ abstract class Expr {
 
     final Expr object;
     final Token name;
+    int site = -1;
   }
   static class Grouping extends Expr {
     Grouping(Expr expression) {
@@ -147,6 +152,10 @@ abstract class Expr {
 
     final Token keyword;
     final Token method;
+    int depth = -1;
+    int slot = -1;
+    int thisDepth = -1;
+    int thisSlot = -1;
   }
   static class This extends Expr {
     This(Token keyword) {
@@ -159,6 +168,8 @@ abstract class Expr {
     }
 
     final Token keyword;
+    int depth = -1;
+    int slot = -1;
   }
   static class Unary extends Expr {
     Unary(Token operator, Expr right) {
@@ -173,6 +184,7 @@ abstract class Expr {
 
     final Token operator;
     final Expr right;
+    boolean numeric = false;
   }
   static class Variable extends Expr {
     Variable(Token name) {
@@ -185,6 +197,8 @@ abstract class Expr {
     }
 
     final Token name;
+    int depth = -1;
+    int slot = -1;
   }
   static class Function extends Expr {
     Function(List<Token> parameters, List<Stmt> body) {
@@ -199,6 +213,10 @@ abstract class Expr {
 
     final List<Token> parameters;
     final List<Stmt> body;
+    int slots = 0;
+    int calls = 0;
+    ClosureCompiler.Body compiled = null;
+    boolean pure = false;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
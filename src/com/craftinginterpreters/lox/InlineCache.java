@@ -0,0 +1,108 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// Per call site cache of method lookups, keyed by the receiver's class. A
+// class's methods never change after its declaration ran, so an entry stays
+// valid for as long as the class exists. Once a site has seen more than
+// MAX_ENTRIES classes it is megamorphic and further classes are looked up
+// without being cached. The slot of a field is cached for up to MAX_ENTRIES
+// receiver shapes the same way, shapes never change either.
+//
+// Classes belong to a session, so the caches do too: each interpreter keeps
+// its own in a Table, rather than on the tree that sessions can share. The
+// tasks of a session run on other threads, and share its caches. Each method
+// entry is an immutable pair, so a racing update can lose an entry but never
+// pair a key with another key's value. Field entries are added under a lock
+// and only become visible once complete.
+class InlineCache {
+	private static final int MAX_ENTRIES = 4;
+
+	private static final class MethodEntry {
+		final LoxClass klass;
+		final LoxFunction method;
+
+		MethodEntry(LoxClass klass, LoxFunction method) {
+			this.klass = klass;
+			this.method = method;
+		}
+	}
+
+	private final MethodEntry[] methods = new MethodEntry[MAX_ENTRIES];
+	private int size = 0;
+
+	// Filled once, in order. Only the first fieldCount entries are complete.
+	private final Shape[] shapes = new Shape[MAX_ENTRIES];
+	private final int[] slots = new int[MAX_ENTRIES];
+	private volatile int fieldCount = 0;
+
+	// Returns -1 when the shape has no such field.
+	int slotOf(Shape shape, String name) {
+		int count = fieldCount;
+		for (int i = 0; i < count; i++) {
+			if (shapes[i] == shape)
+				return slots[i];
+		}
+
+		int slot = shape.slotOf(name);
+		if (count < MAX_ENTRIES)
+			addField(shape, slot);
+		return slot;
+	}
+
+	private synchronized void addField(Shape shape, int slot) {
+		int count = fieldCount;
+		if (count < MAX_ENTRIES) {
+			shapes[count] = shape;
+			slots[count] = slot;
+			fieldCount = count + 1;
+		}
+	}
+
+	// Returns null when the class has no such method.
+	LoxFunction lookup(LoxClass klass, String name) {
+		for (int i = 0; i < size; i++) {
+			MethodEntry entry = methods[i];
+			if (entry != null && entry.klass == klass)
+				return entry.method;
+		}
+
+		LoxFunction method = klass.findMethod(name);
+		int index = size;
+		if (index < MAX_ENTRIES) {
+			methods[index] = new MethodEntry(klass, method);
+			size = index + 1;
+		}
+		return method;
+	}
+
+	// The caches of one session, by the site number the Resolver gave each
+	// property access.
+	static final class Table {
+		private volatile InlineCache[] caches = new InlineCache[64];
+
+		InlineCache get(int site) {
+			// A node the Resolver never saw runs uncached.
+			if (site < 0)
+				return new InlineCache();
+
+			InlineCache[] caches = this.caches;
+			if (site < caches.length) {
+				InlineCache cache = caches[site];
+				if (cache != null)
+					return cache;
+			}
+			return create(site);
+		}
+
+		private synchronized InlineCache create(int site) {
+			InlineCache[] caches = this.caches;
+			if (site >= caches.length)
+				caches = Arrays.copyOf(caches, Math.max(caches.length * 2, site + 1));
+			if (caches[site] == null)
+				caches[site] = new InlineCache();
+			this.caches = caches;
+			return caches[site];
+		}
+	}
+}
@@ -1,9 +1,13 @@
 package com.craftinginterpreters.lox;
 
-import java.util.ArrayList;
+import java.io.PrintWriter;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.craftinginterpreters.lox.Expr.Call;
 import com.craftinginterpreters.lox.Stmt.Break;
@@ -11,35 +15,121 @@ import com.craftinginterpreters.lox.Stmt.Expression;
 import com.craftinginterpreters.lox.Stmt.Print;
 import com.craftinginterpreters.tool.Pair;
 
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
+
+	final Environment globals;
+	private Environment environment;
+	// Value of the last executed return statement.
+	Object returnValue = null;
+	// The call of the last return in tail position, for LoxFunction.run().
+	LoxFunction tailFunction = null;
+	Environment tailFrame = null;
+	// Returned instead of a value by a call made in tail position.
+	static final Object TAIL_CALL = new Object();
+	// Whether hot functions get compiled by the ClosureCompiler.
+	boolean compileHotFunctions = false;
+	// Whether functions the Resolver found pure remember their results.
+	boolean memoizePureFunctions = false;
+	// Where print statements write. Flushed by the session, not per line.
+	final PrintWriter out;
+	// Tasks started by spawn(), here or in any task spawned from here, that
+	// nobody joined yet.
+	private final Set<LoxTask> tasks;
+	// The inline caches of the property accesses run here, or in any task
+	// spawned from here.
+	private final InlineCache.Table caches;
+	// The fields set here, or in any task spawned from here, on classes of a
+	// ProgramImage. Sessions share those classes, so each keeps their fields
+	// apart, as if it had copied the class on its first write.
+	private final Map<LoxClass, LoxInstance> classFields;
+	// Set once a task was spawned here, and on every task. Only then are
+	// fields written under the instance's lock.
+	private boolean concurrent = false;
 
-	final Environment globals = new Environment();
-	private Environment environment = globals;
-	private final Map<Expr, Integer> locals = new HashMap<>();
-
-	Interpreter() {
-		globals.define("clock", new LoxCallable() {
-			@Override
-			public int arity() {
-				return 0;
-			}
-
-			@Override
-			public Object call(Interpreter interpreter, List<Object> arguments) {
-				return (double) System.currentTimeMillis() / 1000.0;
-			}
+	private RunningMode runningMode;
 
-			@Override
-			public String toString() {
-				return "<native fn>";
-			}
-		});
+	public Interpreter(RunningMode mode) {
+		this(mode, Lox.out);
 	}
 
-	private RunningMode runningMode;
+	Interpreter(RunningMode mode, PrintWriter out) {
+		this(mode, out, new Environment());
+		defineNatives();
+	}
 
-	public Interpreter(RunningMode mode) {
+	Interpreter(RunningMode mode, PrintWriter out, Environment globals) {
 		this.runningMode = mode;
+		this.out = out;
+		this.tasks = Collections.synchronizedSet(new LinkedHashSet<>());
+		this.caches = new InlineCache.Table();
+		this.classFields = new HashMap<>();
+		this.globals = globals;
+		this.environment = globals;
+	}
+
+	// For a task. It shares everything but the call frames.
+	private Interpreter(Interpreter parent) {
+		this.runningMode = parent.runningMode;
+		this.out = parent.out;
+		this.tasks = parent.tasks;
+		this.caches = parent.caches;
+		this.classFields = parent.classFields;
+		this.globals = parent.globals;
+		this.environment = globals;
+		this.compileHotFunctions = parent.compileHotFunctions;
+		this.memoizePureFunctions = parent.memoizePureFunctions;
+		this.concurrent = true;
+	}
+
+	private void defineNatives() {
+		globals.define("clock", new LoxNative(0,
+				(interpreter, arguments) -> (double) System.currentTimeMillis() / 1000.0));
+		globals.define("spawn", new LoxNative(1, (interpreter, arguments) -> {
+			if (!(arguments[0] instanceof LoxCallable function) || function.arity() != 0)
+				throw new RuntimeError(null, "Can only spawn a function that takes no arguments.");
+			interpreter.concurrent = true;
+			LoxTask task = new LoxTask(new Interpreter(interpreter), function);
+			interpreter.tasks.add(task);
+			return task;
+		}));
+		globals.define("join", new LoxNative(1, (interpreter, arguments) -> {
+			if (!(arguments[0] instanceof LoxTask task))
+				throw new RuntimeError(null, "Can only join a task.");
+			interpreter.tasks.remove(task);
+			return task.join();
+		}));
+		globals.define("channel", new LoxNative(0, (interpreter, arguments) -> new LoxChannel()));
+		globals.define("send", new LoxNative(2, (interpreter, arguments) -> {
+			if (!(arguments[0] instanceof LoxChannel channel))
+				throw new RuntimeError(null, "Can only send to a channel.");
+			channel.send(arguments[1]);
+			return null;
+		}));
+		globals.define("receive", new LoxNative(1, (interpreter, arguments) -> {
+			if (!(arguments[0] instanceof LoxChannel channel))
+				throw new RuntimeError(null, "Can only receive from a channel.");
+			return channel.receive();
+		}));
+		globals.define("memoize", new LoxNative(1, (interpreter, arguments) -> {
+			if (arguments[0] instanceof MemoizedFunction)
+				return arguments[0];
+			if (!(arguments[0] instanceof LoxCallable function))
+				throw new RuntimeError(null, "Can only memoize a function.");
+			return new MemoizedFunction(function);
+		}));
+		globals.define("memoStats", new LoxNative(1, (interpreter, arguments) -> {
+			if (!(arguments[0] instanceof MemoizedFunction function))
+				throw new RuntimeError(null, "Can only get the stats of a memoized function.");
+			return function.stats();
+		}));
+	}
+
+	int unjoinedTasks() {
+		return tasks.size();
+	}
+
+	boolean isRepl() {
+		return runningMode == RunningMode.REPL;
 	}
 
 	void interpret(List<Stmt> statements) {
@@ -50,48 +140,75 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		} catch (RuntimeError error) {
 			Lox.runtimeError(error);
 		}
+		awaitTasks();
+	}
+
+	// Waits for every task nobody joined, so that their output is flushed with
+	// the script's, and reports their errors.
+	private void awaitTasks() {
+		for (;;) {
+			LoxTask task;
+			synchronized (tasks) {
+				Iterator<LoxTask> iterator = tasks.iterator();
+				if (!iterator.hasNext())
+					return;
+				task = iterator.next();
+				iterator.remove();
+			}
+			try {
+				task.await();
+			} catch (RuntimeError error) {
+				if (!task.joined())
+					Lox.runtimeError(error);
+			}
+		}
 	}
 
 	@Override
 	public Object visitAssignExpr(Expr.Assign expr) {
 		Object value = evaluate(expr.value);
 
-		Integer distance = locals.get(expr);
-
-		if (distance != null) {
-			environment.assignAt(distance, expr.name, value);
+		if (expr.depth >= 0) {
+			environment.assignAt(expr.depth, expr.slot, value);
 		} else {
-			globals.assign(expr.name, value);
+			globals.assignGlobal(expr.slot, expr.name, value);
 		}
 		return value;
 	}
 
 	@Override
-	public Void visitVarStmt(Stmt.Var stmt) {
+	public Completion visitVarStmt(Stmt.Var stmt) {
 		Object value = null;
 		if (stmt.initializer != null) {
 			value = evaluate(stmt.initializer);
 		}
 
-		environment.define(stmt.name.lexeme, value);
+		define(stmt.name, stmt.slot, value);
 
 		if (this.runningMode == RunningMode.REPL)
-			System.out.println(value);
+			out.println(value);
 
-		return null;
+		return Completion.NORMAL;
 	}
 
 	@Override
 	public Object visitVariableExpr(Expr.Variable expr) {
-		return lookUpVariable(expr.name, expr);
+		return lookUpVariable(expr.name, expr.depth, expr.slot);
+	}
+
+	private Object lookUpVariable(Token name, int depth, int slot) {
+		if (depth >= 0) {
+			return environment.getAt(depth, slot);
+		} else {
+			return globals.getGlobal(slot, name);
+		}
 	}
 
-	private Object lookUpVariable(Token name, Expr expr) {
-		Integer distance = locals.get(expr);
-		if (distance != null) {
-			return environment.getAt(distance, name.lexeme);
+	private void define(Token name, int slot, Object value) {
+		if (slot >= 0) {
+			environment.slots[slot] = value;
 		} else {
-			return globals.get(name);
+			environment.define(name.lexeme, value);
 		}
 	}
 
@@ -124,16 +241,15 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		}
 
 		Object value = evaluate(expr.value);
-		((LoxInstance) object).set(expr.name, value);
+		setField((LoxInstance) object, expr.name, value);
 		return value;
 	}
 
 	@Override
 	public Object visitSuperExpr(Expr.Super expr) {
-		int distance = locals.get(expr);
-		LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
+		LoxClass superclass = (LoxClass) environment.getAt(expr.depth, expr.slot);
 
-		LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
+		LoxInstance object = (LoxInstance) environment.getAt(expr.thisDepth, expr.thisSlot);
 
 		LoxFunction method = superclass.findMethod(expr.method.lexeme);
 
@@ -147,7 +263,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Object visitThisExpr(Expr.This expr) {
-		return lookUpVariable(expr.keyword, expr);
+		return lookUpVariable(expr.keyword, expr.depth, expr.slot);
 	}
 
 	@Override
@@ -157,69 +273,193 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Object visitBinaryExpr(Expr.Binary expr) {
-		Object left = evaluate(expr.left);
-		Object right = evaluate(expr.right);
+		return expr.specialization.evaluate(this, expr);
+	}
+
+	// The generic rules for '+'.
+	static Object add(Expr.Binary expr, Object left, Object right) {
+		if (left instanceof Double && right instanceof Double) {
+			return Numbers.box((double) left + (double) right);
+		}
+
+		if (left instanceof CharSequence leftString && right instanceof CharSequence rightString) {
+			return Rope.concat(leftString, rightString);
+		}
+
+		if (left instanceof CharSequence leftString) {
+			return Rope.concat(leftString, String.valueOf(right));
+		}
+
+		if (right instanceof CharSequence rightString) {
+			return Rope.concat(stringify(left), rightString);
+		}
+
+		throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
+	}
+
+	// True for expressions that either produce a number or throw, so they can be
+	// evaluated by evaluateDouble() without boxing their intermediate results.
+	// The Resolver works it out once for each node, see computeNumeric().
+	private static boolean isNumeric(Expr expr) {
+		if (expr instanceof Expr.Grouping grouping)
+			return isNumeric(grouping.expression);
+		if (expr instanceof Expr.Unary unary)
+			return unary.numeric;
+		if (expr instanceof Expr.Binary binary)
+			return binary.numeric;
+		return false;
+	}
 
+	// For a node whose operands already have their numeric flag.
+	static boolean computeNumeric(Expr.Binary expr) {
 		switch (expr.operator.type) {
-		case GREATER:
-			checkNumberOperands(expr.operator, left, right);
-			return (double) left > (double) right;
-		case GREATER_EQUAL:
-			checkNumberOperands(expr.operator, left, right);
-			return (double) left >= (double) right;
-		case LESS:
-			checkNumberOperands(expr.operator, left, right);
-			return (double) left < (double) right;
-		case LESS_EQUAL:
-			checkNumberOperands(expr.operator, left, right);
-			return (double) left <= (double) right;
-		case BANG_EQUAL:
-			return !isEqual(left, right);
-		case EQUAL_EQUAL:
-			return isEqual(left, right);
 		case MINUS:
-			checkNumberOperands(expr.operator, left, right);
-			return (double) left - (double) right;
+		case STAR:
+		case SLASH:
+			return true;
 		case PLUS:
-			if (left instanceof Double && right instanceof Double) {
-				return (double) left + (double) right;
-			}
+			return isNumeric(expr.left) && isNumeric(expr.right);
+		default:
+			return false;
+		}
+	}
 
-			if (left instanceof String && right instanceof String) {
-				return (String) left + (String) right;
-			}
+	static boolean computeNumeric(Expr.Unary expr) {
+		return expr.operator.type == TokenType.MINUS;
+	}
 
-			if (left instanceof String leftString) {
-				return leftString + right;
-			}
+	double evaluateDouble(Expr expr) {
+		if (expr instanceof Expr.Grouping grouping)
+			return evaluateDouble(grouping.expression);
 
-			if (right instanceof String rightString) {
-				return "" + stringify(left) + rightString;
+		if (expr instanceof Expr.Unary unary) {
+			if (isNumeric(unary.right))
+				return -evaluateDouble(unary.right);
+
+			Object right = evaluate(unary.right);
+			checkNumberOperand(unary.operator, right);
+			return -(double) right;
+		}
+
+		Expr.Binary binary = (Expr.Binary) expr;
+		// Operands that aren't numeric expressions are evaluated as values and
+		// type-checked only after both sides ran, like the boxed path does.
+		boolean leftNumeric = isNumeric(binary.left);
+		double left = leftNumeric ? evaluateDouble(binary.left) : 0;
+		Object leftValue = leftNumeric ? null : evaluate(binary.left);
+		boolean rightNumeric = isNumeric(binary.right);
+		double right = rightNumeric ? evaluateDouble(binary.right) : 0;
+		Object rightValue = rightNumeric ? null : evaluate(binary.right);
+
+		if (!leftNumeric || !rightNumeric) {
+			if ((!leftNumeric && !(leftValue instanceof Double)) || (!rightNumeric && !(rightValue instanceof Double))) {
+				throw new RuntimeError(binary.operator, "Operands must be numbers.");
 			}
+			if (!leftNumeric)
+				left = (double) leftValue;
+			if (!rightNumeric)
+				right = (double) rightValue;
+		}
 
-			throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
+		switch (binary.operator.type) {
+		case PLUS:
+			return left + right;
+		case MINUS:
+			return left - right;
+		case STAR:
+			return left * right;
 		case SLASH:
-			checkNumberOperands(expr.operator, left, right);
-			if (!checkValidDivision(right)) {
-				throw new RuntimeError(expr.operator, "invalid division by 0");
+			if (right == 0) {
+				throw new RuntimeError(binary.operator, "invalid division by 0");
 			}
-			return (double) left / (double) right;
-		case STAR:
-			checkNumberOperands(expr.operator, left, right);
-			return (double) left * (double) right;
+			return left / right;
 		}
 
 		// Unreachable.
-		return null;
+		return 0;
+	}
+
+	boolean compareNumbers(Expr.Binary expr) {
+		boolean leftNumeric = isNumeric(expr.left);
+		double left = leftNumeric ? evaluateDouble(expr.left) : 0;
+		Object leftValue = leftNumeric ? null : evaluate(expr.left);
+		boolean rightNumeric = isNumeric(expr.right);
+		double right = rightNumeric ? evaluateDouble(expr.right) : 0;
+		Object rightValue = rightNumeric ? null : evaluate(expr.right);
+
+		if (!leftNumeric || !rightNumeric) {
+			if ((!leftNumeric && !(leftValue instanceof Double)) || (!rightNumeric && !(rightValue instanceof Double))) {
+				throw new RuntimeError(expr.operator, "Operands must be numbers.");
+			}
+			if (!leftNumeric)
+				left = (double) leftValue;
+			if (!rightNumeric)
+				right = (double) rightValue;
+		}
+
+		switch (expr.operator.type) {
+		case GREATER:
+			return left > right;
+		case GREATER_EQUAL:
+			return left >= right;
+		case LESS:
+			return left < right;
+		default:
+			return left <= right;
+		}
 	}
 
 	@Override
 	public Object visitCallExpr(Expr.Call expr) {
-		Object callee = evaluate(expr.callee);
+		if (expr.callee instanceof Expr.Get get)
+			return invoke(expr, get, false);
+
+		return callValue(expr, evaluate(expr.callee), false);
+	}
+
+	// Like visitCallExpr(), but a call to a LoxFunction isn't made here. It is
+	// left in tailFunction and tailFrame, and TAIL_CALL is returned instead of
+	// its result. Kept apart so that other calls don't pay for another Java
+	// frame.
+	private Object tailCall(Expr.Call expr) {
+		if (expr.callee instanceof Expr.Get get)
+			return invoke(expr, get, true);
 
-		List<Object> arguments = new ArrayList<>();
-		for (Expr argument : expr.arguments) {
-			arguments.add(evaluate(argument));
+		return callValue(expr, evaluate(expr.callee), true);
+	}
+
+	// obj.method(...) calls the method found through the site's inline cache
+	// directly, instead of binding it to the instance first.
+	private Object invoke(Expr.Call expr, Expr.Get get, boolean tail) {
+		Object object = evaluate(get.object);
+		if (!(object instanceof LoxInstance instance)) {
+			throw new RuntimeError(get.name, "Only instances have properties.");
+		}
+
+		InlineCache cache = cache(get);
+		LoxInstance fields = fieldsOf(instance);
+		int slot = fields.fieldSlot(get.name.lexeme, cache);
+		if (slot >= 0)
+			return callValue(expr, callGetter(fields.getField(slot)), tail);
+
+		LoxFunction method = instance.findMethod(get.name.lexeme, cache);
+		if (method == null) {
+			throw new RuntimeError(get.name, "Undefined property '" + get.name.lexeme + "'.");
+		}
+
+		if (method.isGetter())
+			return callValue(expr, method.callMethod(this, instance, null), tail);
+
+		return callFunction(expr, method, method.methodFrame(instance), tail);
+	}
+
+	private Object callValue(Expr.Call expr, Object callee, boolean tail) {
+		if (callee instanceof LoxFunction function)
+			return callFunction(expr, function, function.frame(), tail);
+
+		Object[] arguments = new Object[expr.arguments.size()];
+		for (int i = 0; i < arguments.length; i++) {
+			arguments[i] = evaluate(expr.arguments.get(i));
 		}
 
 		if (!(callee instanceof LoxCallable)) {
@@ -227,42 +467,113 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		}
 
 		LoxCallable function = (LoxCallable) callee;
-		if (arguments.size() != function.arity()) {
+		checkArity(expr, function);
+		return call(this, expr, function, arguments);
+	}
+
+	// For anything but a LoxFunction.
+	static Object call(Interpreter interpreter, Expr.Call expr, LoxCallable function, Object[] arguments) {
+		try {
+			return function.call(interpreter, arguments);
+		} catch (RuntimeError error) {
+			// Errors raised by natives don't know where they happened.
+			if (error.token != null)
+				throw error;
+			throw new RuntimeError(expr.paren, error.getMessage());
+		} catch (StackOverflowError error) {
+			throw new RuntimeError(expr.paren, "Stack overflow.");
+		}
+	}
+
+	// Evaluates the arguments straight into the parameter slots of the frame.
+	private Object callFunction(Expr.Call expr, LoxFunction function, Environment frame, boolean tail) {
+		List<Expr> arguments = expr.arguments;
+		for (int i = 0; i < arguments.size(); i++) {
+			Object argument = evaluate(arguments.get(i));
+			if (i < frame.slots.length)
+				frame.slots[i] = argument;
+		}
+
+		checkArity(expr, function);
+		if (tail)
+			return deferCall(function, frame);
+		// Running out of Java stack is reported like any other runtime error, by
+		// the innermost call that still has room to make one.
+		try {
+			return function.run(this, frame);
+		} catch (StackOverflowError error) {
+			throw new RuntimeError(expr.paren, "Stack overflow.");
+		}
+	}
+
+	Object deferCall(LoxFunction function, Environment frame) {
+		tailFunction = function;
+		tailFrame = frame;
+		return TAIL_CALL;
+	}
+
+	static void checkArity(Expr.Call expr, LoxCallable function) {
+		if (expr.arguments.size() != function.arity()) {
 			throw new RuntimeError(expr.paren,
-					"Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+					"Expected " + function.arity() + " arguments but got " + expr.arguments.size() + ".");
+		}
+	}
+
+	InlineCache cache(Expr.Get get) {
+		return caches.get(get.site);
+	}
+
+	// Where the fields of the instance are kept for this interpreter.
+	LoxInstance fieldsOf(LoxInstance instance) {
+		if (!(instance instanceof LoxClass klass) || !klass.shared)
+			return instance;
+		synchronized (classFields) {
+			return classFields.computeIfAbsent(klass, shared -> new LoxInstance(null));
 		}
-		return function.call(this, arguments);
+	}
+
+	void setField(LoxInstance instance, Token name, Object value) {
+		if (concurrent)
+			fieldsOf(instance).setShared(name, value);
+		else
+			fieldsOf(instance).set(name, value);
+	}
+
+	// Like instance.get(), but finds the fields of a shared class in fieldsOf().
+	Object getProperty(LoxInstance instance, Token name, InlineCache cache) {
+		LoxInstance fields = fieldsOf(instance);
+		if (fields != instance) {
+			int slot = fields.fieldSlot(name.lexeme, cache);
+			if (slot >= 0)
+				return fields.getField(slot);
+		}
+		return instance.get(name, cache);
 	}
 
 	@Override
 	public Object visitGetExpr(Expr.Get expr) {
 		Object object = evaluate(expr.object);
 		if (object instanceof LoxInstance) {
-			Object result = ((LoxInstance) object).get(expr.name);
-			if (result instanceof LoxFunction && ((LoxFunction) result).isGetter()) {
-				result = ((LoxFunction) result).call(this, null);
-			}
-
-			return result;
+			return callGetter(getProperty((LoxInstance) object, expr.name, cache(expr)));
 		}
 
 		throw new RuntimeError(expr.name, "Only instances have properties.");
 	}
 
+	Object callGetter(Object property) {
+		if (property instanceof LoxFunction && ((LoxFunction) property).isGetter()) {
+			return ((LoxFunction) property).call(this, null);
+		}
+		return property;
+	}
+
 	@Override
 	public Object visitUnaryExpr(Expr.Unary expr) {
-		Object right = evaluate(expr.right);
+		if (expr.operator.type == TokenType.MINUS)
+			return Numbers.box(evaluateDouble(expr));
 
-		switch (expr.operator.type) {
-		case MINUS:
-			checkNumberOperand(expr.operator, right);
-			return -(double) right;
-		case BANG:
-			return !isTruthy(right);
-		}
-
-		// Unreachable.
-		return null;
+		// BANG is the only other unary operator.
+		return !isTruthy(evaluate(expr.right));
 	}
 
 	private void checkNumberOperand(Token operator, Object operand) {
@@ -271,7 +582,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		throw new RuntimeError(operator, "Operand must be a number.");
 	}
 
-	private boolean isTruthy(Object object) {
+	static boolean isTruthy(Object object) {
 		if (object == null)
 			return false;
 		if (object instanceof Boolean)
@@ -279,55 +590,80 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return true;
 	}
 
-	private boolean checkValidDivision(Object right) {
-		return (double) right != 0;
-	}
-
-	private void checkNumberOperands(Token operator, Object left, Object right) {
-		if (left instanceof Double && right instanceof Double)
-			return;
-
-		throw new RuntimeError(operator, "Operands must be numbers.");
+	Object evaluate(Expr expr) {
+		return expr.accept(this);
 	}
 
-	private Object evaluate(Expr expr) {
-		return expr.accept(this);
+	private Completion execute(Stmt stmt) {
+		return stmt.accept(this);
 	}
 
-	private void execute(Stmt stmt) {
-		stmt.accept(this);
+	// Entry points for compiled code that hands a node back to the Interpreter.
+	Object evaluate(Expr expr, Environment environment) {
+		Environment previous = this.environment;
+		try {
+			this.environment = environment;
+			return evaluate(expr);
+		} finally {
+			this.environment = previous;
+		}
 	}
 
-	void resolve(Expr expr, int depth) {
-		locals.put(expr, depth);
+	Completion execute(Stmt stmt, Environment environment) {
+		Environment previous = this.environment;
+		try {
+			this.environment = environment;
+			return execute(stmt);
+		} finally {
+			this.environment = previous;
+		}
 	}
 
-	void resolveFast(Expr expr, int depth, int index) {
-		locals.put(expr, depth);
+	void resolve(Expr expr, int depth, int slot) {
+		if (expr instanceof Expr.Variable variable) {
+			variable.depth = depth;
+			variable.slot = slot;
+		} else if (expr instanceof Expr.Assign assign) {
+			assign.depth = depth;
+			assign.slot = slot;
+		} else if (expr instanceof Expr.This thisExpr) {
+			thisExpr.depth = depth;
+			thisExpr.slot = slot;
+		} else if (expr instanceof Expr.Super superExpr) {
+			superExpr.depth = depth;
+			superExpr.slot = slot;
+		}
 	}
 
-	private boolean isEqual(Object a, Object b) {
+	static boolean isEqual(Object a, Object b) {
 		if (a == null && b == null)
 			return true;
 		if (a == null)
 			return false;
 
+		// Strings may be Ropes. Flattening gives a String either way, and
+		// interned literals compare by identity first.
+		if (a instanceof CharSequence && b instanceof CharSequence)
+			return a.toString().equals(b.toString());
+
 		return a.equals(b);
 	}
 
 	@Override
-	public Void visitExpressionStmt(Expression stmt) {
+	public Completion visitExpressionStmt(Expression stmt) {
 		var expr = evaluate(stmt.expression);
 		if (this.runningMode == RunningMode.REPL)
-			System.out.println(expr);
-		return null;
+			out.println(expr);
+		return Completion.NORMAL;
 	}
 
 	@Override
-	public Void visitFunctionStmt(Stmt.Function stmt) {
-		String fnName = stmt.name.lexeme;
-		environment.define(fnName, new LoxFunction(stmt, environment, false));
-		return null;
+	public Completion visitFunctionStmt(Stmt.Function stmt) {
+		LoxCallable function = new LoxFunction(stmt, environment, false);
+		if (memoizePureFunctions && stmt.function.pure)
+			function = new MemoizedFunction(function, globals.globalIndex(stmt.name.lexeme));
+		define(stmt.name, stmt.slot, function);
+		return Completion.NORMAL;
 	}
 
 	@Override
@@ -336,55 +672,69 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	}
 
 	@Override
-	public Void visitIfStmt(Stmt.If stmt) {
+	public Completion visitIfStmt(Stmt.If stmt) {
 		if (isTruthy(evaluate(stmt.condition))) {
-			execute(stmt.thenBranch);
+			return execute(stmt.thenBranch);
 		} else if (stmt.elseBranch != null) {
-			execute(stmt.elseBranch);
+			return execute(stmt.elseBranch);
 		}
-		return null;
+		return Completion.NORMAL;
 	}
 
 	@Override
-	public Void visitPrintStmt(Stmt.Print stmt) {
+	public Completion visitPrintStmt(Stmt.Print stmt) {
 		Object value = evaluate(stmt.expression);
-		System.out.println(stringify(value));
-		return null;
+		out.println(stringify(value));
+		return Completion.NORMAL;
 	}
 
 	@Override
-	public Void visitReturnStmt(Stmt.Return stmt) {
+	public Completion visitReturnStmt(Stmt.Return stmt) {
+		if (stmt.tailCall) {
+			Object value = tailCall((Expr.Call) stmt.value);
+			if (value == TAIL_CALL)
+				return Completion.TAIL_CALL;
+			returnValue = value;
+			return Completion.RETURN;
+		}
+
 		Object value = null;
 		if (stmt.value != null)
 			value = evaluate(stmt.value);
 
-		throw new Return(value);
+		returnValue = value;
+		return Completion.RETURN;
 	}
 
 	@Override
-	public Void visitWhileStmt(Stmt.While stmt) {
+	public Completion visitWhileStmt(Stmt.While stmt) {
 		while (isTruthy(evaluate(stmt.condition))) {
-			try {
-				execute(stmt.body);
-			} catch (RuntimeError e) {
-				if (e.token.type == TokenType.BREAK) {
-					break;
-				}
-				throw e;
-			}
-
+			Completion completion = execute(stmt.body);
+			if (completion == Completion.BREAK)
+				break;
+			if (completion != Completion.NORMAL)
+				return completion;
+			if (stmt.increment != null)
+				evaluate(stmt.increment);
 		}
-		return null;
+		return Completion.NORMAL;
 	}
 
 	@Override
-	public Void visitBlockStmt(Stmt.Block stmt) {
-		executeBlock(stmt.statements, new Environment(environment));
-		return null;
+	public Completion visitBlockStmt(Stmt.Block stmt) {
+		if (stmt.slots == 0) {
+			for (Stmt statement : stmt.statements) {
+				Completion completion = execute(statement);
+				if (completion != Completion.NORMAL)
+					return completion;
+			}
+			return Completion.NORMAL;
+		}
+		return executeBlock(stmt.statements, new Environment(environment, stmt.slots));
 	}
 
 	@Override
-	public Void visitClassStmt(Stmt.Class stmt) {
+	public Completion visitClassStmt(Stmt.Class stmt) {
 		Object superclass = null;
 		if (stmt.superclass != null) {
 			superclass = evaluate(stmt.superclass);
@@ -393,11 +743,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			}
 		}
 
-		environment.define(stmt.name.lexeme, null);
+		define(stmt.name, stmt.slot, null);
 
 		if (stmt.superclass != null) {
-			environment = new Environment(environment);
-			environment.define("super", superclass);
+			environment = new Environment(environment, 1);
+			environment.slots[0] = superclass;
 		}
 
 		Map<String, LoxFunction> classMethods = new HashMap<>();
@@ -420,25 +770,28 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			environment = environment.enclosing;
 		}
 
-		environment.assign(stmt.name, klass);
-		return null;
+		define(stmt.name, stmt.slot, klass);
+		return Completion.NORMAL;
 	}
 
-	void executeBlock(List<Stmt> statements, Environment environment) {
+	Completion executeBlock(List<Stmt> statements, Environment environment) {
 		Environment previous = this.environment;
 
 		try {
 			this.environment = environment;
 
 			for (Stmt statement : statements) {
-				execute(statement);
+				Completion completion = execute(statement);
+				if (completion != Completion.NORMAL)
+					return completion;
 			}
+			return Completion.NORMAL;
 		} finally {
 			this.environment = previous;
 		}
 	}
 
-	private String stringify(Object object) {
+	static String stringify(Object object) {
 		if (object == null)
 			return "nil";
 
@@ -454,8 +807,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	}
 
 	@Override
-	public Void visitBreakStmt(Break stmt) {
-		throw new RuntimeError(new Token(TokenType.BREAK, "break", null, 1), "Operands must be numbers.");
+	public Completion visitBreakStmt(Break stmt) {
+		return Completion.BREAK;
 	}
 
 }
\ No newline at end of file
@@ -1,40 +1,80 @@
 package com.craftinginterpreters.lox;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Arrays;
 
 public class Lox {
-	private static Interpreter interpreter;
-	static boolean hadError = false;
-	static boolean hadRuntimeError = false;
+	private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+	// Standard output, shared by the command-line session and any Interpreter
+	// created without a sink of its own. It goes straight to the stdout file descriptor through a
+	// large buffer instead of through System.out, which locks and flushes on
+	// every line. It is flushed after each script or REPL line, and before an
+	// error is reported so the two streams stay in order.
+	static PrintWriter out = writer(new FileOutputStream(FileDescriptor.out));
+
+	// Runs the scripts given on the command line. Errors are reported to
+	// whichever LoxSession is running on the current thread.
+	private static LoxSession session;
 
 	public static void main(String[] args) throws IOException {
+		boolean compileHotFunctions = false;
+		if (args.length > 0 && args[0].equals("--jit")) {
+			compileHotFunctions = true;
+			args = Arrays.copyOfRange(args, 1, args.length);
+		}
+
+		boolean memoizePureFunctions = false;
+		if (args.length > 0 && args[0].equals("--memoize")) {
+			memoizePureFunctions = true;
+			args = Arrays.copyOfRange(args, 1, args.length);
+		}
+
+		if (args.length > 1 && args[0].equals("--out")) {
+			out = writer(new FileOutputStream(args[1]));
+			args = Arrays.copyOfRange(args, 2, args.length);
+		}
+
 		if (args.length > 1) {
-			System.out.println("Usage: jlox [script]");
+			System.out.println("Usage: jlox [--jit] [--memoize] [--out file] [script]");
 			System.exit(64);
-		} else if (args.length == 1) {
-			interpreter = new Interpreter(RunningMode.INPUT_FILE);
+		}
+
+		RunningMode mode = args.length == 1 ? RunningMode.INPUT_FILE : RunningMode.REPL;
+		session = new LoxSession(mode, compileHotFunctions, memoizePureFunctions, out,
+				new PrintWriter(System.err, true));
+		if (args.length == 1) {
 			runFile(args[0]);
 		} else {
-			interpreter = new Interpreter(RunningMode.REPL);
 			runPrompt();
 		}
 	}
 
+	private static PrintWriter writer(FileOutputStream stream) {
+		return new PrintWriter(new BufferedWriter(new OutputStreamWriter(stream, Charset.defaultCharset()),
+				OUTPUT_BUFFER_SIZE));
+	}
+
 	private static void runFile(String path) throws IOException {
-		byte[] bytes = Files.readAllBytes(Paths.get(path));
-		run(new String(bytes, Charset.defaultCharset()));
+		// The Scanner reads the file in chunks as the Parser asks for tokens.
+		try (Reader reader = new InputStreamReader(new FileInputStream(path), Charset.defaultCharset())) {
+			session.run(reader);
+		}
 
 		// Indicate an error in the exit code.
-		if (hadError)
+		if (session.hadError())
 			System.exit(65);
-		if (hadRuntimeError)
+		if (session.hadRuntimeError())
 			System.exit(70);
 	}
 
@@ -42,62 +82,25 @@ public class Lox {
 		InputStreamReader input = new InputStreamReader(System.in);
 		BufferedReader reader = new BufferedReader(input);
 		for (;;) {
-			System.out.print("> ");
+			out.print("> ");
+			out.flush();
 			String line = reader.readLine();
 			if (line == null)
 				break;
-			run(line);
-			hadError = false;
+			session.run(line);
 		}
 	}
 
-	private static void run(String source) {
-		Scanner scanner = new Scanner(source);
-		List<Token> tokens = scanner.scanTokens();
-
-// PRINT STATEMENTS AFTER SCANNERS
-//		for (var token : tokens) {
-//			System.out.println(token.lexeme + ", ");
-//		}
-
-		Parser parser = new Parser(tokens);
-		List<Stmt> statements = parser.parse();
-
-// PRINT STATEMENTS AFTER PARSER		
-		
-//		  for (Iterator iterator = statements.iterator(); iterator.hasNext();) { Stmt
-//		  stmt = (Stmt) iterator.next(); System.out.println(new
-//		  AstExprPrinter().print(stmt)); }
-//		  System.out.println("---------------PARSER DONE---------------");
-		 
-
-		// Stop if there was a syntax error.
-		if (hadError)
-			return;
-
-		Resolver resolver = new Resolver(interpreter);
-		resolver.resolve(statements);
-
-		// Stop if there was a resolution error.
-		if (hadError)
-			return;
-
-		// System.out.println(new AstPrinter().print(expression));
-		interpreter.interpret(statements);
-	}
-
 	static void error(int line, String message) {
 		report(line, "", message);
 	}
 
 	static void runtimeError(RuntimeError error) {
-		System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-		hadRuntimeError = true;
+		LoxSession.current().runtimeError(error);
 	}
 
 	private static void report(int line, String where, String message) {
-		System.err.println("[line " + line + "] Error" + where + ": " + message);
-		hadError = true;
+		LoxSession.current().report(line, where, message);
 	}
 
 	static void error(Token token, String message) {
@@ -0,0 +1,32 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// An unbounded queue of values for tasks to pass messages through. send()
+// never blocks, receive() waits for a value.
+final class LoxChannel {
+	// The queue can't hold null, which is how nil is represented.
+	private static final Object NIL = new Object();
+
+	private final BlockingQueue<Object> messages = new LinkedBlockingQueue<>();
+
+	void send(Object value) {
+		messages.add(value == null ? NIL : value);
+	}
+
+	Object receive() {
+		try {
+			Object value = messages.take();
+			return value == NIL ? null : value;
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeError(null, "Interrupted while waiting on a channel.");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "<channel>";
+	}
+}
@@ -1,31 +1,40 @@
 package com.craftinginterpreters.lox;
 
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
 
 class LoxClass extends LoxInstance implements LoxCallable {
 	final String name;
+	// The class's own methods together with every inherited one it doesn't
+	// override, so a lookup never has to walk the superclass chain.
 	private final Map<String, LoxFunction> methods;
-	private LoxClass superclass;
+	private final LoxFunction initializer;
+	// Set on the classes of a ProgramImage. They are shared by every session
+	// that runs the image, so each interpreter keeps the fields set on them in
+	// Interpreter.fieldsOf() rather than here.
+	boolean shared = false;
+	// The most fields an instance of the class got so far. New instances get
+	// room for that many up front. Tasks can update it at the same time, and
+	// losing one of the updates only costs a copy of the array.
+	int instanceSize = 0;
+	// The shape every instance of the class starts out with.
+	final Shape emptyShape = new Shape();
 	
 	LoxClass(LoxClass metaclass, LoxClass superclass, String name, Map<String, LoxFunction> methods) {
 		super(metaclass);
-		this.superclass = superclass;
 		this.name = name;
-		this.methods = methods;
-	}
 
-	
-	LoxFunction findMethod(String name) {
-		if (methods.containsKey(name)) {
-			return methods.get(name);
-		}
-		
-		if (superclass != null) {
-			return superclass.findMethod(name);
+		if (superclass == null) {
+			this.methods = methods;
+		} else {
+			this.methods = new HashMap<>(superclass.methods);
+			this.methods.putAll(methods);
 		}
+		this.initializer = this.methods.get("init");
+	}
 
-		return null;
+	LoxFunction findMethod(String name) {
+		return methods.get(name);
 	}
 
 	@Override
@@ -35,19 +44,17 @@ class LoxClass extends LoxInstance implements LoxCallable {
 
 	@Override
 	public int arity() {
-		LoxFunction initializer = findMethod("init");
 		if (initializer == null)
 			return 0;
 		return initializer.arity();
 	}
 
 	@Override
-	public Object call(Interpreter interpreter, List<Object> arguments) {
+	public Object call(Interpreter interpreter, Object[] arguments) {
 		LoxInstance instance = new LoxInstance(this);
-		LoxFunction initializer = findMethod("init");
 
 		if (initializer != null) {
-			initializer.bind(instance).call(interpreter, arguments);
+			initializer.callMethod(interpreter, instance, arguments);
 		}
 
 		return instance;
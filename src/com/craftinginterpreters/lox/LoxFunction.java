@@ -1,36 +1,46 @@
 package com.craftinginterpreters.lox;
 
-import java.util.List;
-
 class LoxFunction implements LoxCallable {
 	private final String name;;
 	private final Expr.Function declaration;
 	private final Environment closure;
 
 	private final boolean isInitializer;
+	// Set on a method bound to an instance. A method receives "this" in the
+	// slot right after its parameters.
+	private final LoxInstance receiver;
+	private final int thisSlot;
 
 	LoxFunction(String name, Expr.Function declaration, Environment closure, boolean isInitializer) {
-		this.name = name;
-		this.closure = closure;
-		this.declaration = declaration;
-		this.isInitializer = isInitializer;
+		this(name, declaration, closure, isInitializer, null);
 	}
 
 	LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
-		this.name = declaration.name.lexeme;
+		this(declaration.name.lexeme, declaration.function, closure, isInitializer, null);
+	}
+
+	private LoxFunction(String name, Expr.Function declaration, Environment closure, boolean isInitializer,
+			LoxInstance receiver) {
+		this.name = name;
 		this.closure = closure;
-		this.declaration = declaration.function;
+		this.declaration = declaration;
 		this.isInitializer = isInitializer;
+		this.receiver = receiver;
+		this.thisSlot = declaration.parameters == null ? 0 : declaration.parameters.size();
 	}
 
 	public boolean isGetter() {
 		return declaration.parameters == null;
 	}
 
+	Expr.Function declaration() {
+		return declaration;
+	}
+
+	// Only needed when a method is used as a value. Calls through obj.method()
+	// pass the receiver straight into the frame instead.
 	LoxFunction bind(LoxInstance instance) {
-		Environment environment = new Environment(closure);
-		environment.define("this", instance);
-		return new LoxFunction(name, declaration, environment, isInitializer);
+		return new LoxFunction(name, declaration, closure, isInitializer, instance);
 	}
 
 	@Override
@@ -39,25 +49,91 @@ class LoxFunction implements LoxCallable {
 	}
 
 	@Override
-	public Object call(Interpreter interpreter, List<Object> arguments) {
-		Environment environment = new Environment(closure);
+	public Object call(Interpreter interpreter, Object[] arguments) {
+		return run(interpreter, withArguments(frame(), arguments));
+	}
 
-		if (declaration.parameters != null) {
-			for (int i = 0; i < declaration.parameters.size(); i++) {
-				environment.define(declaration.parameters.get(i).lexeme, arguments.get(i));
-			}
-		}
+	// Calls the method as if it were bound to the receiver, without creating the
+	// bound LoxFunction.
+	Object callMethod(Interpreter interpreter, LoxInstance receiver, Object[] arguments) {
+		return run(interpreter, withArguments(methodFrame(receiver), arguments));
+	}
+
+	// A new environment for a call. Parameters occupy its first slots, callers
+	// store the arguments there before calling run().
+	Environment frame() {
+		Environment frame = new Environment(closure, declaration.slots);
+		if (receiver != null)
+			frame.slots[thisSlot] = receiver;
+		return frame;
+	}
+
+	Environment methodFrame(LoxInstance receiver) {
+		Environment frame = new Environment(closure, declaration.slots);
+		frame.slots[thisSlot] = receiver;
+		return frame;
+	}
+
+	private static Environment withArguments(Environment frame, Object[] arguments) {
+		if (arguments != null)
+			System.arraycopy(arguments, 0, frame.slots, 0, arguments.length);
+		return frame;
+	}
+
+	// Runs the body itself rather than through execute(), so that a call adds
+	// no Java frame to the nesting of calls that aren't in tail position.
+	Object run(Interpreter interpreter, Environment frame) {
+		compileIfHot(interpreter);
+		Completion completion;
+		if (declaration.compiled != null)
+			completion = declaration.compiled.execute(interpreter, frame);
+		else
+			completion = interpreter.executeBlock(declaration.body, frame);
+
+		if (completion == Completion.TAIL_CALL)
+			return runTailCalls(interpreter);
+		return result(interpreter, frame, completion);
+	}
 
-		try {
-			interpreter.executeBlock(declaration.body, environment);
-		} catch (Return returnValue) {
-			if (isInitializer)
-				return closure.getAt(0, "this");
-			return returnValue.value;
+	// A call in tail position comes back to run() to be made, so a chain of
+	// them runs in this one Java frame instead of nesting.
+	private static Object runTailCalls(Interpreter interpreter) {
+		LoxFunction function;
+		Environment frame;
+		Completion completion;
+		do {
+			function = interpreter.tailFunction;
+			frame = interpreter.tailFrame;
+			interpreter.tailFunction = null;
+			interpreter.tailFrame = null;
+			completion = function.execute(interpreter, frame);
+		} while (completion == Completion.TAIL_CALL);
+
+		return function.result(interpreter, frame, completion);
+	}
+
+	private Completion execute(Interpreter interpreter, Environment frame) {
+		compileIfHot(interpreter);
+		if (declaration.compiled != null)
+			return declaration.compiled.execute(interpreter, frame);
+		return interpreter.executeBlock(declaration.body, frame);
+	}
+
+	private void compileIfHot(Interpreter interpreter) {
+		if (declaration.compiled == null && interpreter.compileHotFunctions
+				&& ++declaration.calls >= ClosureCompiler.COMPILE_THRESHOLD) {
+			declaration.compiled = new ClosureCompiler().compile(declaration);
 		}
+	}
 
+	private Object result(Interpreter interpreter, Environment frame, Completion completion) {
 		if (isInitializer)
-			return closure.getAt(0, "this");
+			return frame.slots[thisSlot];
+		if (completion == Completion.RETURN) {
+			Object value = interpreter.returnValue;
+			interpreter.returnValue = null;
+			return value;
+		}
 		return null;
 	}
 
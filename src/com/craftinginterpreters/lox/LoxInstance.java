@@ -1,40 +1,94 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 class LoxInstance {
-	private String klassName;
-	private LoxClass klass;
-	private final Map<String, Object> fields = new HashMap<>();
+	private static final Object[] NO_VALUES = new Object[0];
 
+	private final LoxClass klass;
+	// Field values, laid out as described by the shape. The array starts out
+	// with room for as many fields as any instance of the class got so far, and
+	// can have slots to spare.
+	private Shape shape;
+	private Object[] values;
+
+	// A null class makes an instance that only holds fields, and is the only
+	// one with its shapes.
 	LoxInstance(LoxClass klass) {
 		this.klass = klass;
-	}
-	
-	LoxInstance(String klassName) {
-		this.klassName = klassName;
+		this.shape = klass == null ? new Shape() : klass.emptyShape;
+		this.values = klass == null || klass.instanceSize == 0 ? NO_VALUES : new Object[klass.instanceSize];
 	}
 
-	Object get(Token name) {
-		if (fields.containsKey(name.lexeme)) {
-			return fields.get(name.lexeme);
+	Object get(Token name, InlineCache cache) {
+		int slot = cache.slotOf(shape, name.lexeme);
+		if (slot >= 0) {
+			return getField(slot);
 		}
 
-		LoxFunction method = klass.findMethod(name.lexeme);
+		LoxFunction method = cache.lookup(klass, name.lexeme);
 		if (method != null)
 			return method.bind(this);
 
 		throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
 	}
 
+	// Returns -1 when the instance has no such field. A slot found here stays
+	// valid, as fields are never removed.
+	int fieldSlot(String name, InlineCache cache) {
+		return cache.slotOf(shape, name);
+	}
+
+	Object getField(int slot) {
+		Object[] values = this.values;
+		if (slot < values.length)
+			return values[slot];
+
+		// Only a task can get here, having seen the shape of a field another
+		// task is adding before the array holding it. See setShared().
+		synchronized (this) {
+			return this.values[slot];
+		}
+	}
+
+	LoxFunction findMethod(String name, InlineCache cache) {
+		return cache.lookup(klass, name);
+	}
+
 	void set(Token name, Object value) {
-		fields.put(name.lexeme, value);
+		int slot = shape.slotOf(name.lexeme);
+		if (slot < 0) {
+			addField(name.lexeme, value);
+			return;
+		}
+		values[slot] = value;
+	}
+
+	// For an instance that tasks running at the same time can reach. The lock
+	// keeps two of them adding fields from losing one, or a value written to
+	// the array being replaced.
+	synchronized void setShared(Token name, Object value) {
+		set(name, value);
+	}
+
+	private void addField(String name, Object value) {
+		Shape next = shape.withField(name);
+		int slot = next.size() - 1;
+		Object[] values = this.values;
+		if (slot >= values.length)
+			values = Arrays.copyOf(values, Math.max(values.length * 2, slot + 1));
+		values[slot] = value;
+
+		// The array goes first. A task that still sees the old array with the new
+		// shape finds the slot past its end, and getField() waits for the lock.
+		this.values = values;
+		this.shape = next;
+		if (klass != null && klass.instanceSize < next.size())
+			klass.instanceSize = next.size();
 	}
 
 	@Override
 	public String toString() {
-		if (klass == null) return klassName + " instance";
 		return klass.name + " instance";
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,32 @@
+package com.craftinginterpreters.lox;
+
+// A function implemented in Java. Errors it raises have no token, the caller
+// reports them at the call.
+class LoxNative implements LoxCallable {
+	interface Body {
+		Object call(Interpreter interpreter, Object[] arguments);
+	}
+
+	private final int arity;
+	private final Body body;
+
+	LoxNative(int arity, Body body) {
+		this.arity = arity;
+		this.body = body;
+	}
+
+	@Override
+	public int arity() {
+		return arity;
+	}
+
+	@Override
+	public Object call(Interpreter interpreter, Object[] arguments) {
+		return body.call(interpreter, arguments);
+	}
+
+	@Override
+	public String toString() {
+		return "<native fn>";
+	}
+}
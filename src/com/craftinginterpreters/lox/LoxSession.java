@@ -0,0 +1,180 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.List;
+
+// One independent Lox program run: its own interpreter and globals, output
+// and error sinks, and error state. Sessions only share ProgramImages, which
+// they copy before writing, so a host can run many of them in parallel, each
+// on its own thread. A session itself is not thread-safe and runs one script
+// at a time.
+public class LoxSession {
+	// The session running on this thread. Lox.error() and Lox.runtimeError()
+	// report to it. A thread that never entered a session reports to one of its
+	// own that writes to stdout and stderr.
+	private static final ThreadLocal<LoxSession> current = ThreadLocal
+			.withInitial(() -> new LoxSession(RunningMode.INPUT_FILE, false, false, Lox.out,
+					new PrintWriter(System.err, true)));
+
+	private final RunningMode mode;
+	private final boolean compileHotFunctions;
+	private final boolean memoizePureFunctions;
+	// Replaced when the session runs a ProgramImage, which brings its own
+	// globals.
+	private Interpreter interpreter;
+	private final PrintWriter out;
+	private final PrintWriter err;
+	private boolean hadError = false;
+	private boolean hadRuntimeError = false;
+
+	// A session that runs scripts with the tree-walking interpreter.
+	public LoxSession(Writer out, Writer err) {
+		this(RunningMode.INPUT_FILE, false, false, printWriter(out), printWriter(err));
+	}
+
+	LoxSession(RunningMode mode, boolean compileHotFunctions, boolean memoizePureFunctions,
+			PrintWriter out, PrintWriter err) {
+		this.mode = mode;
+		this.compileHotFunctions = compileHotFunctions;
+		this.memoizePureFunctions = memoizePureFunctions;
+		this.out = out;
+		this.err = err;
+		this.interpreter = new Interpreter(mode, out);
+		this.interpreter.compileHotFunctions = compileHotFunctions;
+		this.interpreter.memoizePureFunctions = memoizePureFunctions;
+	}
+
+	private static PrintWriter printWriter(Writer writer) {
+		if (writer instanceof PrintWriter printWriter)
+			return printWriter;
+		return new PrintWriter(writer);
+	}
+
+	static LoxSession current() {
+		return current.get();
+	}
+
+	// Returns whether the script ran without errors. Globals defined by earlier
+	// scripts of the session stay visible to later ones.
+	public boolean run(String source) {
+		return run(new Scanner(source));
+	}
+
+	// Reads the script in chunks as it is parsed.
+	public boolean run(Reader source) {
+		return run(new Scanner(source));
+	}
+
+	private boolean run(Scanner scanner) {
+		LoxSession previous = enter();
+		try {
+			List<Stmt> statements = prepare(scanner, interpreter);
+			if (statements != null)
+				interpreter.interpret(statements);
+		} finally {
+			exit(previous);
+		}
+		return !hadError && !hadRuntimeError;
+	}
+
+	// Parses, resolves and optimizes a script once, so that any number of
+	// sessions can run it. Returns null if the script has errors, which are
+	// reported to this session.
+	public ProgramImage compile(String source) {
+		return compileImage(new Scanner(source));
+	}
+
+	public ProgramImage compile(Reader source) {
+		return compileImage(new Scanner(source));
+	}
+
+	private ProgramImage compileImage(Scanner scanner) {
+		LoxSession previous = enter();
+		try {
+			// The image gets globals of its own, so that resolving it doesn't add
+			// names to this session's.
+			Interpreter image = new Interpreter(RunningMode.INPUT_FILE, out);
+			List<Stmt> statements = prepare(scanner, image);
+			return statements == null ? null : new ProgramImage(statements, image);
+		} finally {
+			exit(previous);
+		}
+	}
+
+	// Runs the image with fresh globals, starting from the ones its declarations
+	// defined. Later scripts run in the session see the globals it leaves.
+	public boolean run(ProgramImage program) {
+		LoxSession previous = enter();
+		try {
+			interpreter = new Interpreter(mode, out, program.globals(memoizePureFunctions));
+			interpreter.compileHotFunctions = compileHotFunctions;
+			interpreter.memoizePureFunctions = memoizePureFunctions;
+			interpreter.interpret(program.remaining);
+		} finally {
+			exit(previous);
+		}
+		return !hadError && !hadRuntimeError;
+	}
+
+	private LoxSession enter() {
+		LoxSession previous = current.get();
+		current.set(this);
+		hadError = false;
+		hadRuntimeError = false;
+		return previous;
+	}
+
+	private void exit(LoxSession previous) {
+		out.flush();
+		current.set(previous);
+	}
+
+	// Parses, resolves against the interpreter's globals and optimizes. Returns
+	// null if there were errors.
+	private List<Stmt> prepare(Scanner scanner, Interpreter interpreter) {
+		Parser parser = new Parser(scanner);
+		List<Stmt> statements = parser.parse();
+
+		// Stop if there was a syntax error.
+		if (hadError)
+			return null;
+
+		Resolver resolver = new Resolver(interpreter);
+		resolver.resolve(statements);
+
+		// Stop if there was a resolution error.
+		if (hadError)
+			return null;
+
+		return new Optimizer(interpreter.isRepl()).optimize(statements);
+	}
+
+	public boolean hadError() {
+		return hadError;
+	}
+
+	public boolean hadRuntimeError() {
+		return hadRuntimeError;
+	}
+
+	void report(int line, String where, String message) {
+		out.flush();
+		err.println("[line " + line + "] Error" + where + ": " + message);
+		err.flush();
+		hadError = true;
+	}
+
+	void runtimeError(RuntimeError error) {
+		out.flush();
+		// An error raised while waiting for a task at the end of a script has no
+		// line.
+		if (error.token == null)
+			err.println(error.getMessage());
+		else
+			err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+		err.flush();
+		hadRuntimeError = true;
+	}
+}
@@ -0,0 +1,61 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// A function running on its own thread, started by spawn(). It runs in an
+// Interpreter of its own, so it has its own call frames, but it shares the
+// globals and every object with the code that spawned it.
+final class LoxTask {
+	// Daemon threads, so an abandoned task doesn't keep the JVM alive.
+	private static final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "lox-task");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Future<Object> result;
+	// Once joined, the joining code sees the task's error instead of the
+	// Interpreter reporting it, even if the Interpreter was already waiting
+	// for the task when it got joined.
+	private volatile boolean joined = false;
+
+	LoxTask(Interpreter interpreter, LoxCallable function) {
+		this.result = executor.submit(() -> function.call(interpreter, new Object[0]));
+	}
+
+	// Waits for the task and returns what its function returned. An error that
+	// ended the task is raised again here.
+	Object join() {
+		joined = true;
+		return await();
+	}
+
+	boolean joined() {
+		return joined;
+	}
+
+	Object await() {
+		try {
+			return result.get();
+		} catch (ExecutionException exception) {
+			Throwable cause = exception.getCause();
+			if (cause instanceof RuntimeError error)
+				throw error;
+			if (cause instanceof Error error)
+				throw error;
+			// Still a RuntimeError, so the script can report it like any other.
+			throw new RuntimeError(null, "A task failed with " + cause + ".");
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeError(null, "Interrupted while waiting for a task.");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "<task>";
+	}
+}
@@ -0,0 +1,95 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Wraps a function, remembering what it returned for the arguments it was
+// called with. Only calls whose arguments are all numbers, strings, booleans
+// or nil are remembered. The least recently used results are dropped once
+// there are MAX_ENTRIES of them. Tasks can share one, so the cache is only
+// touched while holding its lock, but not while calling the function.
+final class MemoizedFunction implements LoxCallable {
+	private static final int MAX_ENTRIES = 1 << 16;
+	// Stands for "not cached", as nil is a valid result.
+	private static final Object MISSING = new Object();
+
+	private final LoxCallable function;
+	// For a function memoized because the Resolver found it pure, the global
+	// it was declared as. Its body calls itself through that global, so its
+	// results only hold while the global still refers to this function.
+	private final int globalIndex;
+	private final Map<Object, Object> cache = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+	private long hits = 0;
+	private long misses = 0;
+
+	MemoizedFunction(LoxCallable function) {
+		this(function, -1);
+	}
+
+	MemoizedFunction(LoxCallable function, int globalIndex) {
+		this.function = function;
+		this.globalIndex = globalIndex;
+	}
+
+	@Override
+	public int arity() {
+		return function.arity();
+	}
+
+	@Override
+	public Object call(Interpreter interpreter, Object[] arguments) {
+		Object key = key(arguments);
+		if (key == MISSING
+				|| (globalIndex >= 0 && interpreter.globals.lookupGlobal(globalIndex) != this))
+			return function.call(interpreter, arguments);
+
+		Object value;
+		synchronized (cache) {
+			value = cache.getOrDefault(key, MISSING);
+			if (value != MISSING) {
+				hits++;
+				return value;
+			}
+			misses++;
+		}
+
+		value = function.call(interpreter, arguments);
+		synchronized (cache) {
+			cache.put(key, value);
+		}
+		return value;
+	}
+
+	// Returns MISSING for arguments that can't be a key. A single argument is
+	// its own key.
+	private static Object key(Object[] arguments) {
+		Object[] key = new Object[arguments.length];
+		for (int i = 0; i < arguments.length; i++) {
+			Object argument = arguments[i];
+			// A Rope has no equals(), its text does.
+			if (argument instanceof CharSequence text)
+				argument = text.toString();
+			else if (argument != null && !(argument instanceof Double) && !(argument instanceof Boolean))
+				return MISSING;
+			key[i] = argument;
+		}
+		return key.length == 1 ? key[0] : Arrays.asList(key);
+	}
+
+	String stats() {
+		synchronized (cache) {
+			return hits + " hits, " + misses + " misses, " + cache.size() + " cached";
+		}
+	}
+
+	@Override
+	public String toString() {
+		return function.toString();
+	}
+}
@@ -0,0 +1,28 @@
+package com.craftinginterpreters.lox;
+
+// Boxing of arithmetic results. Small integral values are shared so that loop
+// counters and indexes don't allocate a new Double on every step.
+final class Numbers {
+	private static final int CACHE_LOW = -128;
+	private static final int CACHE_HIGH = 1024;
+	private static final Double[] cache = new Double[CACHE_HIGH - CACHE_LOW + 1];
+
+	static {
+		for (int i = 0; i < cache.length; i++) {
+			cache[i] = (double) (i + CACHE_LOW);
+		}
+	}
+
+	private Numbers() {
+	}
+
+	static Double box(double value) {
+		int integral = (int) value;
+		// -0.0 is left out so that it still prints as "-0".
+		if (integral == value && integral >= CACHE_LOW && integral <= CACHE_HIGH
+				&& (integral != 0 || Double.doubleToRawLongBits(value) == 0L)) {
+			return cache[integral - CACHE_LOW];
+		}
+		return value;
+	}
+}
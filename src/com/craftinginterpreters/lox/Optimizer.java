@@ -0,0 +1,340 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs between the Resolver and the backends. Folds expressions whose operands
+// are all literals, drops branches and loops whose condition is a constant,
+// statements after a return or break, and expression statements that only
+// compute a constant. Nodes are rebuilt only where something changed, and
+// rebuilt nodes keep the slots the Resolver assigned.
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+	// Folding evaluates literal-only subtrees with the Interpreter, so a folded
+	// value is exactly what the program would have computed at runtime.
+	private final Interpreter evaluator = new Interpreter(RunningMode.INPUT_FILE);
+	// In the REPL an expression statement prints its value, so it is kept.
+	private final boolean keepExpressionStatements;
+
+	Optimizer(boolean keepExpressionStatements) {
+		this.keepExpressionStatements = keepExpressionStatements;
+	}
+
+	List<Stmt> optimize(List<Stmt> statements) {
+		List<Stmt> optimized = new ArrayList<>();
+		boolean changed = false;
+		for (Stmt statement : statements) {
+			Stmt result = optimize(statement);
+			if (result != null)
+				optimized.add(result);
+			changed |= result != statement;
+
+			if (result instanceof Stmt.Return || result instanceof Stmt.Break) {
+				changed |= optimized.size() < statements.size();
+				break;
+			}
+		}
+		return changed ? optimized : statements;
+	}
+
+	// Returns null for a statement that can be left out.
+	private Stmt optimize(Stmt stmt) {
+		return stmt.accept(this);
+	}
+
+	private Expr optimize(Expr expr) {
+		return expr.accept(this);
+	}
+
+	// For a statement that can't simply be left out of its parent.
+	private Stmt optimizeBranch(Stmt stmt) {
+		Stmt result = optimize(stmt);
+		if (result == null)
+			return new Stmt.Block(new ArrayList<>());
+		return result;
+	}
+
+	private static boolean isConstant(Expr expr) {
+		return expr instanceof Expr.Literal;
+	}
+
+	// Returns the expression unchanged if evaluating it would fail at runtime.
+	private Expr fold(Expr expr) {
+		try {
+			Object value = expr.accept(evaluator);
+			// A Rope appends to its builder, so one kept in the tree would be
+			// shared by every run of it.
+			if (value instanceof Rope)
+				value = value.toString();
+			return new Expr.Literal(value);
+		} catch (RuntimeError error) {
+			return expr;
+		}
+	}
+
+	private Expr.Function optimizeFunction(Expr.Function function) {
+		List<Stmt> body = optimize(function.body);
+		if (body == function.body)
+			return function;
+
+		Expr.Function optimized = new Expr.Function(function.parameters, body);
+		optimized.slots = function.slots;
+		optimized.pure = function.pure;
+		return optimized;
+	}
+
+	private List<Stmt.Function> optimizeMethods(List<Stmt.Function> methods) {
+		List<Stmt.Function> optimized = new ArrayList<>();
+		boolean changed = false;
+		for (Stmt.Function method : methods) {
+			Stmt.Function result = (Stmt.Function) visitFunctionStmt(method);
+			optimized.add(result);
+			changed |= result != method;
+		}
+		return changed ? optimized : methods;
+	}
+
+	@Override
+	public Stmt visitBlockStmt(Stmt.Block stmt) {
+		List<Stmt> statements = optimize(stmt.statements);
+		if (statements == stmt.statements)
+			return stmt;
+
+		Stmt.Block block = new Stmt.Block(statements);
+		block.slots = stmt.slots;
+		return block;
+	}
+
+	@Override
+	public Stmt visitClassStmt(Stmt.Class stmt) {
+		List<Stmt.Function> methods = optimizeMethods(stmt.methods);
+		List<Stmt.Function> classMethods = optimizeMethods(stmt.classMethods);
+		if (methods == stmt.methods && classMethods == stmt.classMethods)
+			return stmt;
+
+		Stmt.Class klass = new Stmt.Class(stmt.name, stmt.superclass, methods, classMethods);
+		klass.slot = stmt.slot;
+		return klass;
+	}
+
+	@Override
+	public Stmt visitBreakStmt(Stmt.Break stmt) {
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+		Expr expression = optimize(stmt.expression);
+		if (isConstant(expression) && !keepExpressionStatements)
+			return null;
+		if (expression == stmt.expression)
+			return stmt;
+		return new Stmt.Expression(expression);
+	}
+
+	@Override
+	public Stmt visitFunctionStmt(Stmt.Function stmt) {
+		Expr.Function function = optimizeFunction(stmt.function);
+		if (function == stmt.function)
+			return stmt;
+
+		Stmt.Function optimized = new Stmt.Function(stmt.name, function);
+		optimized.slot = stmt.slot;
+		return optimized;
+	}
+
+	@Override
+	public Stmt visitIfStmt(Stmt.If stmt) {
+		Expr condition = optimize(stmt.condition);
+		if (isConstant(condition)) {
+			if (Interpreter.isTruthy(((Expr.Literal) condition).value))
+				return optimize(stmt.thenBranch);
+			if (stmt.elseBranch != null)
+				return optimize(stmt.elseBranch);
+			return null;
+		}
+
+		Stmt thenBranch = optimizeBranch(stmt.thenBranch);
+		Stmt elseBranch = stmt.elseBranch == null ? null : optimizeBranch(stmt.elseBranch);
+		if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch)
+			return stmt;
+		return new Stmt.If(condition, thenBranch, elseBranch);
+	}
+
+	@Override
+	public Stmt visitPrintStmt(Stmt.Print stmt) {
+		Expr expression = optimize(stmt.expression);
+		if (expression == stmt.expression)
+			return stmt;
+		return new Stmt.Print(expression);
+	}
+
+	@Override
+	public Stmt visitReturnStmt(Stmt.Return stmt) {
+		if (stmt.value == null)
+			return stmt;
+
+		Expr value = optimize(stmt.value);
+		if (value == stmt.value)
+			return stmt;
+
+		Stmt.Return optimized = new Stmt.Return(stmt.keyword, value);
+		optimized.tailCall = stmt.tailCall && value instanceof Expr.Call;
+		return optimized;
+	}
+
+	@Override
+	public Stmt visitVarStmt(Stmt.Var stmt) {
+		if (stmt.initializer == null)
+			return stmt;
+
+		Expr initializer = optimize(stmt.initializer);
+		if (initializer == stmt.initializer)
+			return stmt;
+
+		Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+		var.slot = stmt.slot;
+		return var;
+	}
+
+	@Override
+	public Stmt visitWhileStmt(Stmt.While stmt) {
+		Expr condition = optimize(stmt.condition);
+		if (isConstant(condition) && !Interpreter.isTruthy(((Expr.Literal) condition).value))
+			return null;
+
+		Stmt body = optimizeBranch(stmt.body);
+		Expr increment = stmt.increment == null ? null : optimize(stmt.increment);
+		if (increment != null && isConstant(increment))
+			increment = null;
+		if (condition == stmt.condition && body == stmt.body && increment == stmt.increment)
+			return stmt;
+		return new Stmt.While(condition, body, increment);
+	}
+
+	@Override
+	public Expr visitAssignExpr(Expr.Assign expr) {
+		Expr value = optimize(expr.value);
+		if (value == expr.value)
+			return expr;
+
+		Expr.Assign assign = new Expr.Assign(expr.name, value);
+		assign.depth = expr.depth;
+		assign.slot = expr.slot;
+		return assign;
+	}
+
+	@Override
+	public Expr visitBinaryExpr(Expr.Binary expr) {
+		Expr left = optimize(expr.left);
+		Expr right = optimize(expr.right);
+		if (left != expr.left || right != expr.right) {
+			expr = new Expr.Binary(left, expr.operator, right);
+			expr.numeric = Interpreter.computeNumeric(expr);
+		}
+
+		if (isConstant(left) && isConstant(right))
+			return fold(expr);
+		return expr;
+	}
+
+	@Override
+	public Expr visitCallExpr(Expr.Call expr) {
+		Expr callee = optimize(expr.callee);
+		List<Expr> arguments = new ArrayList<>();
+		boolean changed = callee != expr.callee;
+		for (Expr argument : expr.arguments) {
+			Expr result = optimize(argument);
+			arguments.add(result);
+			changed |= result != argument;
+		}
+
+		if (!changed)
+			return expr;
+		return new Expr.Call(callee, expr.paren, arguments);
+	}
+
+	@Override
+	public Expr visitGetExpr(Expr.Get expr) {
+		Expr object = optimize(expr.object);
+		if (object == expr.object)
+			return expr;
+		Expr.Get get = new Expr.Get(object, expr.name);
+		get.site = expr.site;
+		return get;
+	}
+
+	@Override
+	public Expr visitGroupingExpr(Expr.Grouping expr) {
+		Expr expression = optimize(expr.expression);
+		if (isConstant(expression))
+			return expression;
+		if (expression == expr.expression)
+			return expr;
+		return new Expr.Grouping(expression);
+	}
+
+	@Override
+	public Expr visitLiteralExpr(Expr.Literal expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitLogicalExpr(Expr.Logical expr) {
+		Expr left = optimize(expr.left);
+		Expr right = optimize(expr.right);
+
+		// A constant left operand decides whether the right one is the result.
+		if (isConstant(left)) {
+			boolean truthy = Interpreter.isTruthy(((Expr.Literal) left).value);
+			if (expr.operator.type == TokenType.OR ? truthy : !truthy)
+				return left;
+			return right;
+		}
+
+		if (left == expr.left && right == expr.right)
+			return expr;
+		return new Expr.Logical(left, expr.operator, right);
+	}
+
+	@Override
+	public Expr visitSetExpr(Expr.Set expr) {
+		Expr object = optimize(expr.object);
+		Expr value = optimize(expr.value);
+		if (object == expr.object && value == expr.value)
+			return expr;
+		return new Expr.Set(object, expr.name, value);
+	}
+
+	@Override
+	public Expr visitSuperExpr(Expr.Super expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitThisExpr(Expr.This expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitUnaryExpr(Expr.Unary expr) {
+		Expr right = optimize(expr.right);
+		if (right != expr.right) {
+			expr = new Expr.Unary(expr.operator, right);
+			expr.numeric = Interpreter.computeNumeric(expr);
+		}
+
+		if (isConstant(right))
+			return fold(expr);
+		return expr;
+	}
+
+	@Override
+	public Expr visitVariableExpr(Expr.Variable expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitFunctionExpr(Expr.Function expr) {
+		return optimizeFunction(expr);
+	}
+}
@@ -2,6 +2,7 @@ package com.craftinginterpreters.lox;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import static com.craftinginterpreters.lox.TokenType.*;
@@ -12,12 +13,22 @@ class Parser {
 	private static class ParseError extends RuntimeException {
 	}
 
-	private final List<Token> tokens;
-	private int current = 0;
+	// Tokens are pulled one at a time as the parser reaches them, so a Scanner
+	// can produce them on demand. Only the last, current and next token are
+	// held.
+	private final Iterator<Token> tokens;
+	private Token previous;
+	private Token current;
+	private Token next;
 	private boolean binaryError = true;
 
 	Parser(List<Token> tokens) {
+		this(tokens.iterator());
+	}
+
+	Parser(Iterator<Token> tokens) {
 		this.tokens = tokens;
+		this.current = tokens.next();
 	}
 
 	List<Stmt> parse() {
@@ -73,9 +84,11 @@ class Parser {
 	private boolean checkNext(TokenType tokenType) {
 		if (isAtEnd())
 			return false;
-		if (tokens.get(current + 1).type == EOF)
+		if (next == null)
+			next = tokens.next();
+		if (next.type == EOF)
 			return false;
-		return tokens.get(current + 1).type == tokenType;
+		return next.type == tokenType;
 	}
 
 	private Expr expression() {
@@ -144,14 +157,12 @@ class Parser {
 
 			Stmt body = statement();
 
-			if (increment != null) {
-				body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
-			}
-
 			if (condition == null)
 				condition = new Expr.Literal(true);
 
-			body = new Stmt.While(condition, body);
+			// The increment stays on the loop instead of being appended to the body,
+			// so an iteration doesn't need a block of its own.
+			body = new Stmt.While(condition, body, increment);
 
 			if (initializer != null) {
 				body = new Stmt.Block(Arrays.asList(initializer, body));
@@ -214,7 +225,7 @@ class Parser {
 			Expr condition = expression();
 			consume(RIGHT_PAREN, "Expect ')' after condition.");
 			Stmt body = statement();
-			return new Stmt.While(condition, body);
+			return new Stmt.While(condition, body, null);
 		} finally {
 			loopDepth--;
 		}
@@ -595,8 +606,11 @@ class Parser {
 	}
 
 	private Token advance() {
-		if (!isAtEnd())
-			current++;
+		if (!isAtEnd()) {
+			previous = current;
+			current = next != null ? next : tokens.next();
+			next = null;
+		}
 		return previous();
 	}
 
@@ -605,11 +619,11 @@ class Parser {
 	}
 
 	private Token peek() {
-		return tokens.get(current);
+		return current;
 	}
 
 	private Token previous() {
-		return tokens.get(current - 1);
+		return previous;
 	}
 
 	/*
@@ -0,0 +1,63 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A script that was parsed, resolved and optimized once, together with the
+// globals defined by the function and class declarations it starts with. Any
+// number of sessions can run one image at the same time. Each starts from the
+// image's globals and copies them on its first write, and only runs the
+// statements after those declarations.
+public final class ProgramImage {
+	// What is left to run once the leading declarations are in the globals.
+	final List<Stmt> remaining;
+	// Never written after the constructor. They also hold the indexes the
+	// statements were resolved with.
+	private final Environment globals;
+	// Names of the declared functions the Resolver found pure. The image's own
+	// interpreter doesn't memoize them, as each session decides that itself.
+	private final List<String> pureFunctions = new ArrayList<>();
+
+	// Takes statements resolved against the interpreter, which only the image
+	// uses.
+	ProgramImage(List<Stmt> statements, Interpreter interpreter) {
+		// Declarations have no effect besides defining their global, so running
+		// them ahead of time is the same as running them first in every session.
+		// One that fails, such as a class whose superclass isn't a class, is left
+		// to fail in the sessions.
+		int declared = 0;
+		for (Stmt statement : statements) {
+			if (!(statement instanceof Stmt.Function || statement instanceof Stmt.Class))
+				break;
+			try {
+				interpreter.execute(statement, interpreter.globals);
+			} catch (RuntimeError error) {
+				break;
+			}
+
+			if (statement instanceof Stmt.Class klass)
+				((LoxClass) interpreter.globals.get(klass.name)).shared = true;
+			else if (((Stmt.Function) statement).function.pure)
+				pureFunctions.add(((Stmt.Function) statement).name.lexeme);
+			declared++;
+		}
+
+		this.remaining = statements.subList(declared, statements.size());
+		this.globals = interpreter.globals;
+	}
+
+	// A session that memoizes pure functions gets its own memoized function for
+	// each, as running the declarations itself would have given it.
+	Environment globals(boolean memoizePureFunctions) {
+		Environment copy = globals.copyOnWrite();
+		if (memoizePureFunctions) {
+			for (String name : pureFunctions) {
+				int index = copy.globalIndex(name);
+				// A later declaration of the name may have replaced it.
+				if (copy.lookupGlobal(index) instanceof LoxFunction function && function.declaration().pure)
+					copy.define(name, new MemoizedFunction(function, index));
+			}
+		}
+		return copy;
+	}
+}
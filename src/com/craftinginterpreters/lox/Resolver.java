@@ -23,6 +23,16 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	private FunctionType currentFunction = FunctionType.NONE;
 	private HashSet<String> unusedVariables = new HashSet<String>();
 
+	// The top-level function being checked for purity, and whether nothing
+	// impure was found in it so far. A pure function only reads its own locals
+	// and calls itself, so its result depends on nothing but its arguments.
+	private String pureCandidate = null;
+	private boolean pure = false;
+	// How often the candidate reads its own name, and how many of those reads
+	// are the callee of a tail call.
+	private int selfReferences = 0;
+	private int tailSelfCalls = 0;
+
 	Resolver(Interpreter interpreter) {
 		this.interpreter = interpreter;
 	}
@@ -33,18 +43,35 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitBlockStmt(Stmt.Block stmt) {
+		// A block that declares nothing gets no scope, and runs in the enclosing
+		// environment instead of one of its own (slots stays 0).
+		if (!declaresLocals(stmt.statements)) {
+			resolve(stmt.statements);
+			return null;
+		}
+
 		beginScope();
 		resolve(stmt.statements);
-		endScope();
+		stmt.slots = endScope();
 		return null;
 	}
 
+	private static boolean declaresLocals(List<Stmt> statements) {
+		for (Stmt statement : statements) {
+			if (statement instanceof Stmt.Var || statement instanceof Stmt.Function
+					|| statement instanceof Stmt.Class)
+				return true;
+		}
+		return false;
+	}
+
 	@Override
 	public Void visitClassStmt(Stmt.Class stmt) {
 		ClassType enclosingClass = currentClass;
 		currentClass = ClassType.CLASS;
+		pure = false;
 
-		declare(stmt.name);
+		stmt.slot = declare(stmt.name);
 		define(stmt.name);
 
 		if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
@@ -58,25 +85,21 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 		if (stmt.superclass != null) {
 			beginScope();
-			scopes.peek().put("super", new Variable(new Token(TokenType.SUPER, "super", null, 1), VariableState.READ));
+			scopes.peek().put("super", new Variable(new Token(TokenType.SUPER, "super", null, 1), VariableState.READ, 0));
 		}
 
-		beginScope();
-		scopes.peek().put("this", new Variable(new Token(TokenType.THIS, "this", null, 1), VariableState.READ));
-
 		for (Stmt.Function method : stmt.methods) {
 			FunctionType declaration = FunctionType.METHOD;
 			if (method.name.lexeme.equals("init")) {
 				declaration = FunctionType.INITIALIZER;
 			}
-			resolveFunction(method, declaration);
+			resolveFunction(method.function, declaration);
 		}
 
 		for (Stmt.Function method : stmt.classMethods) {
-			resolveFunction(method, FunctionType.METHOD);
+			resolveFunction(method.function, FunctionType.METHOD);
 		}
 
-		endScope();
 		if (stmt.superclass != null)
 			endScope();
 
@@ -93,10 +116,25 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitFunctionStmt(Stmt.Function stmt) {
-		declare(stmt.name);
+		stmt.slot = declare(stmt.name);
 		define(stmt.name);
 
-		resolveFunction(stmt, FunctionType.FUNCTION);
+		if (!scopes.isEmpty()) {
+			// It may close over the candidate's locals.
+			pure = false;
+			resolveFunction(stmt.function, FunctionType.FUNCTION);
+			return null;
+		}
+
+		pureCandidate = stmt.name.lexeme;
+		pure = true;
+		selfReferences = 0;
+		tailSelfCalls = 0;
+		resolveFunction(stmt.function, FunctionType.FUNCTION);
+		// Memoizing a function that only calls itself in tail calls would cost it
+		// those tail calls, and each call would add an entry that is never hit.
+		stmt.function.pure = pure && (tailSelfCalls == 0 || tailSelfCalls < selfReferences);
+		pureCandidate = null;
 		return null;
 	}
 
@@ -121,6 +159,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 			}
 
 			resolve(stmt.value);
+			// Nothing is left to do in the function after such a call, so its
+			// frame can be given up before making it.
+			stmt.tailCall = stmt.value instanceof Expr.Call;
+			if (stmt.tailCall && ((Expr.Call) stmt.value).callee instanceof Expr.Variable callee && callee.depth < 0
+					&& callee.name.lexeme.equals(pureCandidate))
+				tailSelfCalls++;
 		}
 
 		return null;
@@ -128,13 +172,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitPrintStmt(Stmt.Print stmt) {
+		pure = false;
 		resolve(stmt.expression);
 		return null;
 	}
 
 	@Override
 	public Void visitVarStmt(Stmt.Var stmt) {
-		declare(stmt.name);
+		stmt.slot = declare(stmt.name);
 		if (stmt.initializer != null) {
 			resolve(stmt.initializer);
 		}
@@ -146,6 +191,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	public Void visitWhileStmt(Stmt.While stmt) {
 		resolve(stmt.condition);
 		resolve(stmt.body);
+		if (stmt.increment != null)
+			resolve(stmt.increment);
 		return null;
 	}
 
@@ -160,6 +207,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	public Void visitBinaryExpr(Expr.Binary expr) {
 		resolve(expr.left);
 		resolve(expr.right);
+		expr.numeric = Interpreter.computeNumeric(expr);
 		return null;
 	}
 
@@ -176,6 +224,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitGetExpr(Expr.Get expr) {
+		// Fields can change between calls.
+		pure = false;
+		expr.site = interpreter.globals.newCacheSite();
 		resolve(expr.object);
 		return null;
 	}
@@ -200,6 +251,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitSetExpr(Expr.Set expr) {
+		pure = false;
 		resolve(expr.value);
 		resolve(expr.object);
 		return null;
@@ -213,6 +265,16 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 			Lox.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
 		}
 		resolveLocal(expr, expr.keyword, true);
+
+		// The receiver is the "this" slot of the enclosing method's frame.
+		for (int i = scopes.size() - 1; i >= 0; i--) {
+			Variable variable = scopes.get(i).get("this");
+			if (variable != null) {
+				expr.thisDepth = scopes.size() - 1 - i;
+				expr.thisSlot = variable.slot;
+				break;
+			}
+		}
 		return null;
 	}
 
@@ -230,13 +292,17 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	@Override
 	public Void visitUnaryExpr(Expr.Unary expr) {
 		resolve(expr.right);
+		expr.numeric = Interpreter.computeNumeric(expr);
 		return null;
 	}
 
 	@Override
 	public Void visitVariableExpr(Expr.Variable expr) {
-		if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme).state == VariableState.DECLARED) {
-			Lox.error(expr.name, "Can't read local variable in its own initializer.");
+		if (!scopes.isEmpty()) {
+			Variable variable = scopes.peek().get(expr.name.lexeme);
+			if (variable != null && variable.state == VariableState.DECLARED) {
+				Lox.error(expr.name, "Can't read local variable in its own initializer.");
+			}
 		}
 
 		resolveLocal(expr, expr.name, true);
@@ -248,7 +314,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 			resolve(statement);
 		}
 		if (!unusedVariables.isEmpty()) {
-			System.out.println("the following variables were defined but never used " + unusedVariables.toString());
+			interpreter.out.println("the following variables were defined but never used " + unusedVariables.toString());
 		}
 	}
 
@@ -256,7 +322,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		scopes.push(new HashMap<String, Variable>());
 	}
 
-	private void endScope() {
+	// Returns the number of slots the scope's environment needs.
+	private int endScope() {
 		Map<String, Variable> scope = scopes.pop();
 
 		for (Map.Entry<String, Variable> entry : scope.entrySet()) {
@@ -264,19 +331,25 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 				Lox.error(entry.getValue().name, "Local variable is not used.");
 			}
 		}
+
+		return scope.size();
 	}
 
-	private void declare(Token name) {
+	// Returns the slot assigned to the variable, or -1 for a global.
+	private int declare(Token name) {
 		if (scopes.isEmpty())
-			return;
+			return -1;
 
 		Map<String, Variable> scope = scopes.peek();
 
 		if (scope.containsKey(name.lexeme)) {
 			Lox.error(name, "Already a variable with this name in this scope.");
+			return scope.get(name.lexeme).slot;
 		}
 
-		scope.put(name.lexeme, new Variable(name, VariableState.DECLARED));
+		int slot = scope.size();
+		scope.put(name.lexeme, new Variable(name, VariableState.DECLARED, slot));
+		return slot;
 	}
 
 	private void define(Token name) {
@@ -288,15 +361,25 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 	private void resolveLocal(Expr expr, Token name, boolean isRead) {
 		for (int i = scopes.size() - 1; i >= 0; i--) {
-			if (scopes.get(i).containsKey(name.lexeme)) {
-				interpreter.resolve(expr, scopes.size() - 1 - i);
+			Variable variable = scopes.get(i).get(name.lexeme);
+			if (variable != null) {
+				interpreter.resolve(expr, scopes.size() - 1 - i, variable.slot);
 				// Mark it used.
 				if (isRead) {
-					scopes.get(i).get(name.lexeme).state = VariableState.READ;
+					variable.state = VariableState.READ;
 				}
 				return;
 			}
 		}
+
+		// Not found in any scope, so it is a global. It may not be defined yet.
+		// Other globals can change between calls, the candidate's own name is
+		// checked when the function is called.
+		if (!isRead || !name.lexeme.equals(pureCandidate))
+			pure = false;
+		else
+			selfReferences++;
+		interpreter.resolve(expr, -1, interpreter.globals.globalIndex(name.lexeme));
 	}
 
 	private void resolve(Stmt stmt) {
@@ -307,19 +390,24 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		expr.accept(this);
 	}
 
-	private void resolveFunction(Stmt.Function function, FunctionType type) {
+	private void resolveFunction(Expr.Function function, FunctionType type) {
 		FunctionType enclosingFunction = currentFunction;
 		currentFunction = type;
 
 		beginScope();
-		if (function.function.parameters != null) {
-			for (Token param : function.function.parameters) {
+		if (function.parameters != null) {
+			for (Token param : function.parameters) {
 				declare(param);
 				define(param);
 			}
 		}
-		resolve(function.function.body);
-		endScope();
+		// A method's frame holds "this" right after the parameters.
+		if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+			Map<String, Variable> scope = scopes.peek();
+			scope.put("this", new Variable(new Token(TokenType.THIS, "this", null, 1), VariableState.READ, scope.size()));
+		}
+		resolve(function.body);
+		function.slots = endScope();
 		currentFunction = enclosingFunction;
 	}
 
@@ -331,17 +419,20 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitFunctionExpr(Function expr) {
-		// TODO Auto-generated method stub
+		pure = false;
+		resolveFunction(expr, FunctionType.FUNCTION);
 		return null;
 	}
 
 	private static class Variable {
 		final Token name;
 		VariableState state;
+		final int slot;
 
-		private Variable(Token name, VariableState state) {
+		private Variable(Token name, VariableState state, int slot) {
 			this.name = name;
 			this.state = state;
+			this.slot = slot;
 		}
 	}
 
@@ -0,0 +1,74 @@
+package com.craftinginterpreters.lox;
+
+// A string built by concatenation. Its text is the first length characters of
+// a StringBuilder that only ever grows. Appending to the longest rope of a
+// builder reuses that builder, so a string built up by repeated + is copied
+// once instead of on every step. The text becomes a String only when printed
+// or compared. Tasks can share a rope, so the builder is only touched while
+// holding its lock.
+final class Rope implements CharSequence {
+	// Shorter results are plain Strings, for which concat is cheaper.
+	private static final int MIN_LENGTH = 64;
+
+	private final StringBuilder builder;
+	private final int length;
+	private String flat;
+
+	private Rope(StringBuilder builder, int length) {
+		this.builder = builder;
+		this.length = length;
+	}
+
+	static CharSequence concat(CharSequence left, CharSequence right) {
+		int length = left.length() + right.length();
+		if (length < MIN_LENGTH)
+			return left.toString().concat(right.toString());
+
+		// Anything past this rope's length belongs to a longer rope that shares
+		// the builder, so it can only be extended by copying.
+		if (left instanceof Rope rope) {
+			String text = right.toString();
+			synchronized (rope.builder) {
+				if (rope.builder.length() == rope.length) {
+					rope.builder.append(text);
+					return new Rope(rope.builder, length);
+				}
+			}
+		}
+
+		StringBuilder builder = new StringBuilder(length * 2);
+		builder.append(left.toString()).append(right.toString());
+		return new Rope(builder, length);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index >= length)
+			throw new IndexOutOfBoundsException(index);
+		synchronized (builder) {
+			return builder.charAt(index);
+		}
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().subSequence(start, end);
+	}
+
+	@Override
+	public String toString() {
+		String text = flat;
+		if (text == null) {
+			synchronized (builder) {
+				text = builder.substring(0, length);
+			}
+			flat = text;
+		}
+		return text;
+	}
+}
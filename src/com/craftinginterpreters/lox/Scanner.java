@@ -1,18 +1,35 @@
 package com.craftinginterpreters.lox;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
-class Scanner {
-	private final String source;
-	private final List<Token> tokens = new ArrayList<>();
+// Produces tokens one at a time, as the Parser asks for them. Input from a
+// Reader is read in chunks into a buffer that only has to hold the current
+// lexeme, so a large script is never copied into memory as a whole.
+class Scanner implements Iterator<Token> {
+	private static final int CHUNK_SIZE = 8192;
+
+	// Null once the input is exhausted, or when scanning a String.
+	private Reader reader;
+	private char[] buffer;
+	// Number of characters read into the buffer.
+	private int limit;
+	// Offsets into the buffer.
 	private int start = 0;
 	private int current = 0;
 	private int line = 1;
+	// Set by addToken() for nextToken() to return.
+	private Token token;
+	private boolean returnedEof = false;
 	private static final Map<String, TokenType> keywords;
 
 	static {
@@ -37,18 +54,44 @@ class Scanner {
 	}
 
 	Scanner(String source) {
-		this.source = source;
+		this.buffer = source.toCharArray();
+		this.limit = buffer.length;
+	}
+
+	Scanner(Reader reader) {
+		this.reader = reader;
+		this.buffer = new char[CHUNK_SIZE];
 	}
 
 	List<Token> scanTokens() {
+		List<Token> tokens = new ArrayList<>();
+		while (hasNext()) {
+			tokens.add(next());
+		}
+		return tokens;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !returnedEof;
+	}
+
+	// Returns EOF at the end of the input, and again on every later call.
+	@Override
+	public Token next() {
 		while (!isAtEnd()) {
 			// We are at the beginning of the next lexeme.
 			start = current;
 			scanToken();
+			if (token != null) {
+				Token result = token;
+				token = null;
+				return result;
+			}
 		}
 
-		tokens.add(new Token(EOF, "", null, line));
-		return tokens;
+		returnedEof = true;
+		return new Token(EOF, "", null, line);
 	}
 
 	private void scanToken() {
@@ -81,7 +124,11 @@ class Scanner {
             case '/':
 	            if (match('/')) {
 	              // A comment goes until the end of the line.
-	              while (peek() != '\n' && !isAtEnd()) advance();
+	              while (peek() != '\n' && !isAtEnd()) {
+	                advance();
+	                // Nothing of a comment is kept in the buffer.
+	                start = current;
+	              }
 	            } else if (match('*')) {
 	            	// handle multi-line comments - /* hello */
 	            	while (!isAtEnd()) {
@@ -90,6 +137,7 @@ class Scanner {
 		            	if (peek() == '/' && peekNext() == '*')	scanToken(); // handle nested comment recursively
 		            	
 	            		advance();
+	            		start = current;
 	            		
 	            		if (endOfComment) {advance(); break;}
 	            	} 	            
@@ -126,11 +174,13 @@ class Scanner {
 		while (isAlphaNumeric(peek()))
 			advance();
 
-		String text = source.substring(start, current);
+		String text = lexeme(start, current);
 		TokenType type = keywords.get(text);
 		if (type == null)
 			type = IDENTIFIER;
-		addToken(type);
+		// Interned so that names used as field and method keys, and string
+		// literals, compare by identity before comparing characters.
+		token = new Token(type, text.intern(), null, line);
 	}
 
 	private boolean isAlpha(char c) {
@@ -154,13 +204,13 @@ class Scanner {
 				advance();
 		}
 
-		addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+		addToken(NUMBER, Double.parseDouble(lexeme(start, current)));
 	}
 
 	private char peekNext() {
-		if (current + 1 >= source.length())
+		if (!fill(1))
 			return '\0';
-		return source.charAt(current + 1);
+		return buffer[current + 1];
 	}
 
 	private boolean isDigit(char c) {
@@ -183,14 +233,14 @@ class Scanner {
 		advance();
 
 		// Trim the surrounding quotes.
-		String value = source.substring(start + 1, current - 1);
-		addToken(STRING, value);
+		String value = lexeme(start + 1, current - 1);
+		addToken(STRING, value.intern());
 	}
 
 	private boolean match(char expected) {
 		if (isAtEnd())
 			return false;
-		if (source.charAt(current) != expected)
+		if (buffer[current] != expected)
 			return false;
 
 		current++;
@@ -200,15 +250,53 @@ class Scanner {
 	private char peek() {
 		if (isAtEnd())
 			return '\0';
-		return source.charAt(current);
+		return buffer[current];
 	}
 
 	private boolean isAtEnd() {
-		return current >= source.length();
+		return !fill(0);
 	}
 
 	private char advance() {
-		return source.charAt(current++);
+		fill(0);
+		return buffer[current++];
+	}
+
+	// Makes sure the character `ahead` places after the current one is in the
+	// buffer. Returns false if the input ends before it. Reading more first
+	// drops everything before the current lexeme, and grows the buffer only
+	// for a lexeme longer than it.
+	private boolean fill(int ahead) {
+		while (current + ahead >= limit) {
+			if (reader == null)
+				return false;
+
+			if (start > 0) {
+				System.arraycopy(buffer, start, buffer, 0, limit - start);
+				limit -= start;
+				current -= start;
+				start = 0;
+			}
+			if (limit == buffer.length)
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+			try {
+				int read = reader.read(buffer, limit, buffer.length - limit);
+				if (read < 0) {
+					reader.close();
+					reader = null;
+				} else {
+					limit += read;
+				}
+			} catch (IOException error) {
+				throw new UncheckedIOException(error);
+			}
+		}
+		return true;
+	}
+
+	private String lexeme(int from, int to) {
+		return new String(buffer, from, to - from);
 	}
 
 	private void addToken(TokenType type) {
@@ -216,7 +304,6 @@ class Scanner {
 	}
 
 	private void addToken(TokenType type, Object literal) {
-		String text = source.substring(start, current);
-		tokens.add(new Token(type, text, literal, line));
+		token = new Token(type, lexeme(start, current), literal, line);
 	}
 }
@@ -0,0 +1,51 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Hidden class describing which slot of a LoxInstance holds which field.
+// Instances that had the same fields added in the same order share a Shape, so
+// the name to slot mapping is stored once instead of once per instance. Each
+// class roots a tree of the shapes of its instances, which goes away with it.
+class Shape {
+	private final Map<String, Integer> slots;
+	// Shapes reached from this one by adding a field, by field name. The
+	// classes of a ProgramImage are shared by sessions that may run on
+	// different threads, and so are their shapes.
+	private final Map<String, Shape> transitions = new ConcurrentHashMap<>();
+
+	// The shape of an instance without fields.
+	Shape() {
+		this(new HashMap<>());
+	}
+
+	private Shape(Map<String, Integer> slots) {
+		this.slots = slots;
+	}
+
+	int size() {
+		return slots.size();
+	}
+
+	// Returns -1 when the shape has no such field.
+	int slotOf(String name) {
+		Integer slot = slots.get(name);
+		if (slot == null)
+			return -1;
+		return slot;
+	}
+
+	// The shape of an instance with this shape after adding the field.
+	Shape withField(String name) {
+		Shape next = transitions.get(name);
+		if (next == null) {
+			next = transitions.computeIfAbsent(name, field -> {
+				Map<String, Integer> nextSlots = new HashMap<>(slots);
+				nextSlots.put(field, slots.size());
+				return new Shape(nextSlots);
+			});
+		}
+		return next;
+	}
+}
@@ -0,0 +1,120 @@
+package com.craftinginterpreters.lox;
+
+// How an Expr.Binary node evaluates itself. A node starts UNINITIALIZED, which
+// on its first run rewrites the node to the evaluator for its operator, and
+// for '+' to the one for the operand types it saw. A specialized '+' only does
+// the checks for its own case, and deoptimizes the node to GENERIC_ADD for good
+// on the first mismatch, so it never flips back and forth.
+enum Specialization {
+	UNINITIALIZED {
+		@Override
+		Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+			switch (expr.operator.type) {
+			case GREATER:
+			case GREATER_EQUAL:
+			case LESS:
+			case LESS_EQUAL:
+				return rewrite(expr, COMPARISON).evaluate(interpreter, expr);
+			case MINUS:
+			case STAR:
+			case SLASH:
+				return rewrite(expr, ARITHMETIC).evaluate(interpreter, expr);
+			case EQUAL_EQUAL:
+				return rewrite(expr, EQUAL).evaluate(interpreter, expr);
+			case BANG_EQUAL:
+				return rewrite(expr, NOT_EQUAL).evaluate(interpreter, expr);
+			default:
+				break;
+			}
+
+			if (expr.numeric)
+				return rewrite(expr, ARITHMETIC).evaluate(interpreter, expr);
+
+			// The operands have to run before their types are known.
+			Object left = interpreter.evaluate(expr.left);
+			Object right = interpreter.evaluate(expr.right);
+			if (left instanceof Double && right instanceof Double) {
+				expr.specialization = NUMBER_ADD;
+			} else if (left instanceof CharSequence && right instanceof CharSequence) {
+				expr.specialization = STRING_ADD;
+			} else {
+				expr.specialization = GENERIC_ADD;
+			}
+			return Interpreter.add(expr, left, right);
+		}
+	},
+
+	// Operators that only take numbers, and '+' on operands that can only be
+	// numbers. They run on unboxed doubles.
+	ARITHMETIC {
+		@Override
+		Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+			return Numbers.box(interpreter.evaluateDouble(expr));
+		}
+	},
+
+	COMPARISON {
+		@Override
+		Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+			return interpreter.compareNumbers(expr);
+		}
+	},
+
+	EQUAL {
+		@Override
+		Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+			Object left = interpreter.evaluate(expr.left);
+			return Interpreter.isEqual(left, interpreter.evaluate(expr.right));
+		}
+	},
+
+	NOT_EQUAL {
+		@Override
+		Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+			Object left = interpreter.evaluate(expr.left);
+			return !Interpreter.isEqual(left, interpreter.evaluate(expr.right));
+		}
+	},
+
+	NUMBER_ADD {
+		@Override
+		Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+			Object left = interpreter.evaluate(expr.left);
+			Object right = interpreter.evaluate(expr.right);
+			if (left instanceof Double leftNumber && right instanceof Double rightNumber)
+				return Numbers.box(leftNumber + rightNumber);
+			return deoptimize(expr, left, right);
+		}
+	},
+
+	STRING_ADD {
+		@Override
+		Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+			Object left = interpreter.evaluate(expr.left);
+			Object right = interpreter.evaluate(expr.right);
+			if (left instanceof CharSequence leftString && right instanceof CharSequence rightString)
+				return Rope.concat(leftString, rightString);
+			return deoptimize(expr, left, right);
+		}
+	},
+
+	GENERIC_ADD {
+		@Override
+		Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+			Object left = interpreter.evaluate(expr.left);
+			return Interpreter.add(expr, left, interpreter.evaluate(expr.right));
+		}
+	};
+
+	abstract Object evaluate(Interpreter interpreter, Expr.Binary expr);
+
+	private static Specialization rewrite(Expr.Binary expr, Specialization specialization) {
+		expr.specialization = specialization;
+		return specialization;
+	}
+
+	private static Object deoptimize(Expr.Binary expr, Object left, Object right) {
+		expr.specialization = GENERIC_ADD;
+		return Interpreter.add(expr, left, right);
+	}
+}
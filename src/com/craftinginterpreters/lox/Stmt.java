@@ -26,6 +26,7 @@ abstract class Stmt {
     }
 
     final List<Stmt> statements;
+    int slots = 0;
   }
   static class Class extends Stmt {
     Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods, List<Stmt.Function> classMethods) {
@@ -44,6 +45,7 @@ abstract class Stmt {
     final Expr.Variable superclass;
     final List<Stmt.Function> methods;
     final List<Stmt.Function> classMethods;
+    int slot = -1;
   }
   static class Break extends Stmt {
     Break() {
@@ -80,6 +82,7 @@ abstract class Stmt {
 
     final Token name;
     final Expr.Function function;
+    int slot = -1;
   }
   static class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
@@ -122,6 +125,7 @@ abstract class Stmt {
 
     final Token keyword;
     final Expr value;
+    boolean tailCall = false;
   }
   static class Var extends Stmt {
     Var(Token name, Expr initializer) {
@@ -136,11 +140,13 @@ abstract class Stmt {
 
     final Token name;
     final Expr initializer;
+    int slot = -1;
   }
   static class While extends Stmt {
-    While(Expr condition, Stmt body) {
+    While(Expr condition, Stmt body, Expr increment) {
       this.condition = condition;
       this.body = body;
+      this.increment = increment;
     }
 
     @Override
@@ -150,6 +156,7 @@ abstract class Stmt {
 
     final Expr condition;
     final Stmt body;
+    final Expr increment;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
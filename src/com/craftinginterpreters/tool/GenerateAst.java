@@ -12,33 +12,35 @@ public class GenerateAst {
 			System.exit(64);
 		}
 		String outputDir = args[0];
+		// Fields after '|' are not constructor arguments; they are filled in by the
+		// Resolver after parsing, or by the Interpreter as the node runs.
 		defineAst(outputDir, "Expr", 
-				  Arrays.asList("Assign   : Token name, Expr value",
-						  		"Binary   : Expr left, Token operator, Expr right",
+				  Arrays.asList("Assign   : Token name, Expr value | int depth = -1, int slot = -1",
+						  		"Binary   : Expr left, Token operator, Expr right | Specialization specialization = Specialization.UNINITIALIZED, boolean numeric = false",
 						  		"Call     : Expr callee, Token paren, List<Expr> arguments",
-						  		"Get      : Expr object, Token name",
+						  		"Get      : Expr object, Token name | int site = -1",
 								"Grouping : Expr expression", 
 								"Literal  : Object value",
 								"Logical  : Expr left, Token operator, Expr right",
 								"Set      : Expr object, Token name, Expr value",
-								"Super    : Token keyword, Token method",
-								"This     : Token keyword",
-								"Unary    : Token operator, Expr right",
-				  				"Variable : Token name",
-				  				"Function : List<Token> parameters, List<Stmt> body"));
+								"Super    : Token keyword, Token method | int depth = -1, int slot = -1, int thisDepth = -1, int thisSlot = -1",
+								"This     : Token keyword | int depth = -1, int slot = -1",
+								"Unary    : Token operator, Expr right | boolean numeric = false",
+				  				"Variable : Token name | int depth = -1, int slot = -1",
+				  				"Function : List<Token> parameters, List<Stmt> body | int slots = 0, int calls = 0, ClosureCompiler.Body compiled = null, boolean pure = false"));
 
 		defineAst(outputDir, "Stmt", 
-				  Arrays.asList("Block      : List<Stmt> statements",
-					      		"Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods, List<Stmt.Function> classMethods",
+				  Arrays.asList("Block      : List<Stmt> statements | int slots = 0",
+					      		"Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods, List<Stmt.Function> classMethods | int slot = -1",
 						  		"Break      : ",  // <--
 						  		"Expression : Expr expression",
-						  		"Function   : Token name, Expr.Function function",
+						  		"Function   : Token name, Expr.Function function | int slot = -1",
 						  		"If         : Expr condition, Stmt thenBranch," +
 						                    " Stmt elseBranch",
 						  		"Print      : Expr expression",
-						  		"Return     : Token keyword, Expr value",
-						  		"Var        : Token name, Expr initializer", 
-						  		"While      : Expr condition, Stmt body"));
+						  		"Return     : Token keyword, Expr value | boolean tailCall = false",
+						  		"Var        : Token name, Expr initializer | int slot = -1", 
+						  		"While      : Expr condition, Stmt body, Expr increment"));
 	}
 
 	private static void defineAst(String outputDir, String baseName, List<String> types) throws IOException {
@@ -56,8 +58,10 @@ public class GenerateAst {
 		// The AST classes.
 		for (String type : types) {
 			String className = type.split(":")[0].trim();
-			String fields = type.split(":")[1].trim();
-			defineType(writer, baseName, className, fields);
+			String[] fieldLists = type.split(":")[1].split("\\|");
+			String fields = fieldLists[0].trim();
+			String resolvedFields = fieldLists.length > 1 ? fieldLists[1].trim() : "";
+			defineType(writer, baseName, className, fields, resolvedFields);
 		}
 
 		// The base accept() method.
@@ -79,7 +83,8 @@ public class GenerateAst {
 		writer.println("  }");
 	}
 
-	private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+	private static void defineType(PrintWriter writer, String baseName, String className, String fieldList,
+			String resolvedFieldList) {
 		writer.println("  static class " + className + " extends " + baseName + " {");
 
 		// Constructor.
@@ -113,6 +118,12 @@ public class GenerateAst {
 			writer.println("    final " + field + ";");
 		}
 
+		if (!resolvedFieldList.isEmpty()) {
+			for (String field : resolvedFieldList.split(", ")) {
+				writer.println("    " + field + ";");
+			}
+		}
+
 		writer.println("  }");
 	}
 }
\ No newline at end of file
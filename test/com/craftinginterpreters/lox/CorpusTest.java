@@ -0,0 +1,137 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+// Runs every script in test/corpus under each backend and checks that they
+// all produce what the script's comments expect:
+//
+//   print 1 + 2; // expect: 3
+//   print nil.x; // expect runtime error: Only instances have properties.
+//
+// A script that uses something a mode doesn't support lists the mode's flags
+// in a comment such as "// skip: --jit, --jit --memoize".
+class CorpusTest {
+	private static final Path CORPUS = Path.of("test", "corpus");
+	private static final Path BENCHMARKS = Path.of("benchmarks", "src", "main", "resources", "corpus");
+	private static final Pattern EXPECT = Pattern.compile("// expect: ?(.*)");
+	private static final Pattern RUNTIME_ERROR = Pattern.compile("// expect runtime error: (.+)");
+	private static final Pattern SKIP = Pattern.compile("// skip: (.+)");
+
+	private enum Mode {
+		INTERPRETER(""), JIT("--jit"), MEMOIZE("--memoize"), JIT_MEMOIZE("--jit --memoize");
+
+		final String flags;
+
+		Mode(String flags) {
+			this.flags = flags;
+		}
+
+		LoxSession session(RunningMode mode, StringWriter out, StringWriter err) {
+			return new LoxSession(mode, flags.contains("--jit"), flags.contains("--memoize"),
+					new PrintWriter(out), new PrintWriter(err));
+		}
+	}
+
+	@TestFactory
+	Stream<DynamicTest> corpus() throws IOException {
+		List<DynamicTest> tests = new ArrayList<>();
+		try (Stream<Path> files = Files.list(CORPUS)) {
+			for (Path file : files.filter(path -> path.toString().endsWith(".lox")).sorted().toList()) {
+				String source = Files.readString(file);
+				for (Mode mode : Mode.values()) {
+					if (skips(source, mode))
+						continue;
+					String name = file.getFileName() + (mode.flags.isEmpty() ? "" : " " + mode.flags);
+					tests.add(DynamicTest.dynamicTest(name, () -> check(source, mode)));
+				}
+			}
+		}
+		return tests.stream();
+	}
+
+	// The benchmark programs print nothing, but have to run without errors
+	// under every backend for their timings to mean anything.
+	@TestFactory
+	Stream<DynamicTest> benchmarks() throws IOException {
+		List<DynamicTest> tests = new ArrayList<>();
+		try (Stream<Path> files = Files.list(BENCHMARKS)) {
+			for (Path file : files.filter(path -> path.toString().endsWith(".lox")).sorted().toList()) {
+				String source = Files.readString(file);
+				for (Mode mode : Mode.values()) {
+					String name = file.getFileName() + (mode.flags.isEmpty() ? "" : " " + mode.flags);
+					tests.add(DynamicTest.dynamicTest(name, () -> check(source, mode)));
+				}
+			}
+		}
+		return tests.stream();
+	}
+
+	private static boolean skips(String source, Mode mode) {
+		Matcher matcher = SKIP.matcher(source);
+		while (matcher.find()) {
+			if (!mode.flags.isEmpty() && List.of(matcher.group(1).split(", ")).contains(mode.flags))
+				return true;
+		}
+		return false;
+	}
+
+	private static void check(String source, Mode mode) {
+		List<String> expectedOutput = new ArrayList<>();
+		List<String> expectedErrors = new ArrayList<>();
+		String[] lines = source.split("\n", -1);
+		for (int i = 0; i < lines.length; i++) {
+			Matcher expect = EXPECT.matcher(lines[i]);
+			if (expect.find())
+				expectedOutput.add(expect.group(1));
+			Matcher error = RUNTIME_ERROR.matcher(lines[i]);
+			if (error.find()) {
+				expectedErrors.add(error.group(1));
+				expectedErrors.add("[line " + (i + 1) + "]");
+			}
+		}
+
+		StringWriter out = new StringWriter();
+		StringWriter err = new StringWriter();
+		LoxSession session = mode.session(RunningMode.INPUT_FILE, out, err);
+		session.run(source);
+
+		assertEquals(String.join("\n", expectedOutput), trim(out.toString()));
+		assertEquals(String.join("\n", expectedErrors), trim(err.toString()));
+		assertEquals(!expectedErrors.isEmpty(), session.hadRuntimeError());
+		assertEquals(false, session.hadError());
+	}
+
+	// The REPL echoes the raw value of each expression statement and variable
+	// declaration.
+	@Test
+	void replEchoesValues() {
+		StringWriter out = new StringWriter();
+		StringWriter err = new StringWriter();
+		LoxSession session = Mode.INTERPRETER.session(RunningMode.REPL, out, err);
+		session.run("var a = 1 + 2;");
+		session.run("a * 2;");
+		session.run("\"s\" + \"t\";");
+		session.run("print a;");
+		assertEquals("3.0\n6.0\nst\n3", trim(out.toString()));
+		assertEquals("", err.toString());
+	}
+
+	private static String trim(String text) {
+		return text.replace("\r\n", "\n").stripTrailing();
+	}
+}
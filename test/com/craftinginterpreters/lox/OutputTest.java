@@ -0,0 +1,49 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.Test;
+
+// When what a script prints reaches the session's sinks.
+class OutputTest {
+	// Prints stay in the sink's buffer until the script ends, and then reach
+	// it in one flush.
+	@Test
+	void outputIsFlushedOnceAtTheEnd() {
+		CountingWriter out = new CountingWriter();
+		LoxSession session = new LoxSession(out, new StringWriter());
+		assertTrue(session.run("for (var i = 0; i < 1000; i = i + 1) print i;"));
+
+		assertEquals(1, out.flushes);
+		String[] lines = out.toString().replace("\r\n", "\n").split("\n");
+		assertEquals(1000, lines.length);
+		assertEquals("999", lines[999]);
+	}
+
+	// What was printed before an error comes before it, even though the
+	// output is buffered and the error isn't.
+	@Test
+	void outputComesBeforeTheError() {
+		StringWriter sink = new StringWriter();
+		LoxSession session = new LoxSession(new BufferedWriter(sink), new BufferedWriter(sink));
+		assertFalse(session.run("print 1;\nprint 2;\nprint nil + 1;\nprint 3;"));
+
+		assertEquals("1\n2\nOperands must be two numbers or two strings.\n[line 3]",
+				sink.toString().replace("\r\n", "\n").strip());
+	}
+
+	private static final class CountingWriter extends StringWriter {
+		int flushes = 0;
+
+		@Override
+		public void flush() {
+			flushes++;
+			super.flush();
+		}
+	}
+}
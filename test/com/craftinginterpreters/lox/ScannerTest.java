@@ -0,0 +1,73 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+// Scanning input from a Reader, which arrives in chunks.
+class ScannerTest {
+	// The same tokens on the same lines as scanning the whole text at once,
+	// wherever the reads split it. The script is several chunks long, and has
+	// a string literal longer than a chunk.
+	@Test
+	void readerGivesTheSameTokensAsAString() {
+		StringBuilder script = new StringBuilder();
+		for (int i = 0; i < 2000; i++)
+			script.append("var v").append(i).append(" = ").append(i).append(".5 <= 3; // comment ").append(i).append('\n');
+		script.append("print \"").append("x".repeat(20000)).append("\nsecond line\";\n");
+		script.append("print identifierAtTheEnd");
+		String source = script.toString();
+
+		List<Token> expected = new Scanner(source).scanTokens();
+		for (int readSize : new int[] { 1, 7, 8191, 8192, 100000 })
+			assertSameTokens(expected, new Scanner(new ShortReads(source, readSize)).scanTokens());
+	}
+
+	// Errors in a script read in chunks are reported at their line.
+	@Test
+	void errorsKeepTheirLine() {
+		StringBuilder script = new StringBuilder();
+		for (int i = 0; i < 3000; i++)
+			script.append("var v").append(i).append(" = ").append(i).append(";\n");
+		script.append("print v1 + nil;\n");
+
+		StringWriter err = new StringWriter();
+		LoxSession session = new LoxSession(new StringWriter(), err);
+		assertFalse(session.run(new ShortReads(script.toString(), 100)));
+		assertEquals("Operands must be two numbers or two strings.\n[line 3001]",
+				err.toString().replace("\r\n", "\n").strip());
+	}
+
+	private static void assertSameTokens(List<Token> expected, List<Token> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).type, actual.get(i).type);
+			assertEquals(expected.get(i).lexeme, actual.get(i).lexeme);
+			assertEquals(expected.get(i).literal, actual.get(i).literal);
+			assertEquals(expected.get(i).line, actual.get(i).line);
+		}
+	}
+
+	// Hands out at most readSize characters per read.
+	private static final class ShortReads extends FilterReader {
+		private final int readSize;
+
+		ShortReads(String text, int readSize) {
+			super(new StringReader(text));
+			this.readSize = readSize;
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int length) throws IOException {
+			return super.read(buffer, offset, Math.min(length, readSize));
+		}
+	}
+}
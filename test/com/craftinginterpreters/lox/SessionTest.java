@@ -0,0 +1,157 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+// How sessions run scripts compiled into a ProgramImage, alone and next to
+// each other.
+class SessionTest {
+	// Each session starts from the image's globals, and the scripts it runs
+	// afterwards see the ones it left.
+	@Test
+	void sessionsRunAnImageIndependently() {
+		StringWriter out = new StringWriter();
+		LoxSession compiler = new LoxSession(out, new StringWriter());
+		ProgramImage image = compiler.compile("fun add(a, b) { return a + b; } var total = add(1, 2);");
+
+		StringWriter first = new StringWriter();
+		LoxSession one = new LoxSession(first, new StringWriter());
+		assertTrue(one.run(image));
+		assertTrue(one.run("total = total + 1; var extra = 5; print add(total, extra);"));
+
+		StringWriter second = new StringWriter();
+		LoxSession two = new LoxSession(second, new StringWriter());
+		assertTrue(two.run(image));
+		assertTrue(two.run("print total;"));
+
+		assertEquals("9", first.toString().strip());
+		assertEquals("3", second.toString().strip());
+		assertEquals("", out.toString());
+	}
+
+	// A method cache belongs to the session, and one for a property access of
+	// a later script never stands for one of the image's.
+	@Test
+	void laterScriptsGetTheirOwnCaches() {
+		ProgramImage image = new LoxSession(new StringWriter(), new StringWriter()).compile(
+				"class Pair { first() { return 1; } second() { return 2; } } var pair = Pair(); print pair.first();");
+
+		for (int i = 0; i < 2; i++) {
+			StringWriter out = new StringWriter();
+			LoxSession session = new LoxSession(out, new StringWriter());
+			assertTrue(session.run(image));
+			assertTrue(session.run("print pair.second();"));
+			assertEquals("1\n2", out.toString().replace("\r\n", "\n").strip());
+		}
+	}
+
+	// The image's classes are shared, but a field set on one is only seen by
+	// the session that set it.
+	@Test
+	void classFieldsStayInTheirSession() {
+		ProgramImage image = new LoxSession(new StringWriter(), new StringWriter()).compile(
+				"class C { class bump() { this.count = this.count + 1; return this.count; } } C.count = 1;");
+
+		for (int i = 0; i < 2; i++) {
+			StringWriter out = new StringWriter();
+			LoxSession session = new LoxSession(out, new StringWriter());
+			assertTrue(session.run(image));
+			assertTrue(session.run("print C.count; print C.bump();"));
+			assertEquals("1\n2", out.toString().replace("\r\n", "\n").strip());
+		}
+
+		LoxSession setter = new LoxSession(new StringWriter(), new StringWriter());
+		assertTrue(setter.run(image));
+		assertTrue(setter.run("C.other = 3;"));
+		StringWriter err = new StringWriter();
+		LoxSession reader = new LoxSession(new StringWriter(), err);
+		assertTrue(reader.run(image));
+		assertFalse(reader.run("print C.other;"));
+		assertEquals("Undefined property 'other'.\n[line 1]", err.toString().replace("\r\n", "\n").strip());
+	}
+
+	// A session that memoizes pure functions does so for the image's too, each
+	// with a cache of its own.
+	@Test
+	void pureFunctionsOfAnImageAreMemoized() {
+		ProgramImage image = new LoxSession(new StringWriter(), new StringWriter()).compile(
+				"fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }");
+
+		for (boolean compileHotFunctions : new boolean[] { false, true }) {
+			StringWriter out = new StringWriter();
+			LoxSession session = new LoxSession(RunningMode.INPUT_FILE, compileHotFunctions, true,
+					new PrintWriter(out), new PrintWriter(new StringWriter()));
+			assertTrue(session.run(image));
+			assertTrue(session.run("print fib(20); print memoStats(fib);"));
+			assertEquals("6765\n18 hits, 21 misses, 21 cached", out.toString().replace("\r\n", "\n").strip());
+		}
+	}
+
+	// Sessions on a thread pool, whether they run scripts of their own or the
+	// same image, never see each other's output, globals or fields.
+	@Test
+	void sessionsOnAThreadPoolStayApart() throws Exception {
+		ProgramImage image = new LoxSession(new StringWriter(), new StringWriter()).compile(
+				"class Counter { init(start) { this.count = start; } bump() { this.count = this.count + 1; } }"
+						+ " var total = 0;");
+
+		int sessions = 8;
+		CountDownLatch start = new CountDownLatch(1);
+		List<Callable<String>> runs = new ArrayList<>();
+		List<String> expected = new ArrayList<>();
+		for (int i = 1; i <= sessions; i++) {
+			int id = i;
+			runs.add(() -> {
+				start.await();
+				return run(null, "var total = " + id + "; class Box {} var box = Box(); box.value = 0;"
+						+ " for (var i = 0; i < 1000; i = i + 1) box.value = box.value + 1;"
+						+ " print total; print box.value;");
+			});
+			expected.add(id + "\n1000");
+			runs.add(() -> {
+				start.await();
+				return run(image, "Counter.runs = " + id + "; var counter = Counter(" + id + ");"
+						+ " for (var i = 0; i < 1000; i = i + 1) counter.bump();"
+						+ " total = total + counter.count; print Counter.runs; print total;");
+			});
+			expected.add(id + "\n" + (id + 1000));
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for (Callable<String> run : runs)
+				results.add(pool.submit(run));
+			start.countDown();
+			for (int i = 0; i < results.size(); i++)
+				assertEquals(expected.get(i), results.get(i).get());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// Runs the script in a new session, after the image unless it's null, and
+	// returns what it printed.
+	private static String run(ProgramImage image, String script) {
+		StringWriter out = new StringWriter();
+		StringWriter err = new StringWriter();
+		LoxSession session = new LoxSession(out, err);
+		if (image != null)
+			assertTrue(session.run(image));
+		assertTrue(session.run(script), err.toString());
+		return out.toString().replace("\r\n", "\n").strip();
+	}
+}
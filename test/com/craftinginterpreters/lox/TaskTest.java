@@ -0,0 +1,39 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+// What an interpreter keeps of the tasks spawned in it.
+class TaskTest {
+	// A joined task is forgotten right away, so a script that keeps spawning
+	// and joining tasks doesn't pile them up, and the end of the script only
+	// waits for the others.
+	@Test
+	void joinedTasksAreForgotten() {
+		Interpreter interpreter = new Interpreter(RunningMode.INPUT_FILE, new PrintWriter(new StringWriter()));
+		LoxCallable spawn = global(interpreter, "spawn");
+		LoxCallable join = global(interpreter, "join");
+		LoxCallable function = new LoxNative(0, (caller, arguments) -> 1.0);
+
+		for (int i = 0; i < 1000; i++) {
+			Object task = spawn.call(interpreter, new Object[] { function });
+			assertEquals(1.0, join.call(interpreter, new Object[] { task }));
+		}
+		assertEquals(0, interpreter.unjoinedTasks());
+
+		spawn.call(interpreter, new Object[] { function });
+		spawn.call(interpreter, new Object[] { function });
+		assertEquals(2, interpreter.unjoinedTasks());
+		interpreter.interpret(List.of());
+		assertEquals(0, interpreter.unjoinedTasks());
+	}
+
+	private static LoxCallable global(Interpreter interpreter, String name) {
+		return (LoxCallable) interpreter.globals.get(new Token(TokenType.IDENTIFIER, name, null, 1));
+	}
+}